@@ -0,0 +1,69 @@
+package ass2.spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hero movement with collisions among many scattered trees, timed per move along
+ * the same random walk from the middle of the terrain on every call. The same moves
+ * are timed with the obstacles found by the spatial index and with every tree tested.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark {
+
+    private static final int SIZE = 513;
+    // moves in one walk
+    private static final int MOVES = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int trees;
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private Hero hero;
+    private Random random = new Random();
+
+    @Setup
+    public void setUp() {
+        Terrain terrain = Levels.hills(SIZE);
+        Random placement = new Random(trees);
+        for (int i = 0; i < trees; i++) {
+            terrain.addTree(placement.nextDouble() * (SIZE - 1), placement.nextDouble() * (SIZE - 1));
+        }
+        hero = new Hero(terrain);
+        hero.setIndexed(indexed);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MOVES)
+    public double[] walk() {
+        hero.place(SIZE / 2, SIZE / 2, 0);
+        random.setSeed(MOVES);
+        for (int i = 0; i < MOVES; i++) {
+            if (random.nextInt(8) == 0) {
+                hero.turn(random.nextInt(90) - 45);
+            }
+            hero.moveForward();
+        }
+        return hero.getTranslation();
+    }
+}
@@ -0,0 +1,77 @@
+package ass2.spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and saving levels as JSON and in the binary format, for growing grid sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelIOBenchmark {
+
+    @Param({"65", "257", "1025"})
+    public int size;
+
+    private Terrain terrain;
+    private File json;
+    private File binary;
+    private File out;
+
+    @Setup
+    public void setUp() throws IOException {
+        terrain = Levels.create(size);
+        json = File.createTempFile("ass2-bench", ".json");
+        binary = File.createTempFile("ass2-bench", ".bin");
+        out = File.createTempFile("ass2-bench", ".out");
+        LevelIO.save(terrain, json);
+        LevelIO.saveBinary(terrain, binary);
+    }
+
+    @TearDown
+    public void tearDown() {
+        json.delete();
+        binary.delete();
+        out.delete();
+    }
+
+    @Benchmark
+    public Terrain loadJson() throws IOException {
+        return LevelIO.load(json);
+    }
+
+    @Benchmark
+    public Terrain loadBinary() throws IOException {
+        return LevelIO.load(binary);
+    }
+
+    @Benchmark
+    public File saveJson() throws IOException {
+        LevelIO.save(terrain, out);
+        return out;
+    }
+
+    @Benchmark
+    public File saveBinary() throws IOException {
+        LevelIO.saveBinary(terrain, out);
+        return out;
+    }
+}
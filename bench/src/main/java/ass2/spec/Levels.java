@@ -0,0 +1,71 @@
+package ass2.spec;
+
+import java.util.Random;
+
+/**
+ * Made up levels of any size for the benchmarks, the same for a size on every run.
+ */
+public class Levels {
+
+    // grid cells per tree and per enemy
+    private static final int CELLS_PER_TREE = 64;
+    private static final int CELLS_PER_ENEMY = 1024;
+
+    /**
+     * A terrain of rolling hills with trees, enemies and a road across it.
+     *
+     * @param size width and depth of the grid
+     * @return
+     */
+    public static Terrain create(int size) {
+        Terrain terrain = hills(size);
+        Random random = new Random(size);
+        double extent = size - 1;
+        int cells = (size - 1) * (size - 1);
+        for (int i = 0; i < cells / CELLS_PER_TREE; i++) {
+            terrain.addTree(random.nextDouble() * extent, random.nextDouble() * extent);
+        }
+        for (int i = 0; i < cells / CELLS_PER_ENEMY; i++) {
+            terrain.addEnemy(random.nextDouble() * extent, random.nextDouble() * extent,
+                    random.nextDouble() * 360, 1);
+        }
+        terrain.addRoad(1, road(size, Math.max(1, size / 16), random));
+        return terrain;
+    }
+
+    /**
+     * A terrain of rolling hills and nothing else.
+     *
+     * @param size width and depth of the grid
+     * @return
+     */
+    public static Terrain hills(int size) {
+        Terrain terrain = new Terrain(size, size);
+        Random random = new Random(size);
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                terrain.setGridAltitude(x, z, 2 * Math.sin(x * 0.05) * Math.cos(z * 0.07) + random.nextDouble() * 0.1);
+            }
+        }
+        return terrain;
+    }
+
+    /**
+     * The spine of a road winding from one side of the terrain to the other.
+     *
+     * @param size width and depth of the grid
+     * @param segments
+     * @param random
+     * @return
+     */
+    public static double[] road(int size, int segments, Random random) {
+        double extent = size - 1;
+        double[] spine = new double[2 + 6 * segments];
+        double step = extent / (3 * segments);
+        for (int i = 0; i <= 3 * segments; i++) {
+            spine[2 * i] = i * step;
+            spine[2 * i + 1] = MathUtils.clamp(extent / 2 + (random.nextDouble() - 0.5) * 6 * step, 0, extent);
+        }
+        return spine;
+    }
+}
@@ -0,0 +1,64 @@
+package ass2.spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The matrix routines used to place objects and the camera.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathUtilsBenchmark {
+
+    private double[][] a;
+    private double[][] b;
+    private double[] v = {1, 2, 3, 1};
+    // changed between calls so nothing is folded into a constant
+    private double angle = 30;
+
+    @Setup
+    public void setUp() {
+        a = MathUtils.mult(MathUtils.translation(1, 2, 3), MathUtils.rotation(30, 1));
+        b = MathUtils.perspective(60, 4.0 / 3, 0.5, 20);
+    }
+
+    @Benchmark
+    public double[][] multMatrix() {
+        return MathUtils.mult(a, b);
+    }
+
+    @Benchmark
+    public double[] multVector() {
+        return MathUtils.mult(a, v);
+    }
+
+    @Benchmark
+    public double[][] perspective() {
+        return MathUtils.perspective(angle, 4.0 / 3, 0.5, 20);
+    }
+
+    // a model matrix as GameObject builds it, translated and rotated about each axis
+    @Benchmark
+    public double[][] modelMatrix() {
+        double[][] m = MathUtils.translation(1, 2, 3);
+        m = MathUtils.mult(m, MathUtils.rotation(angle, 0));
+        m = MathUtils.mult(m, MathUtils.rotation(angle, 1));
+        m = MathUtils.mult(m, MathUtils.rotation(angle, 2));
+        angle += 0.5;
+        return m;
+    }
+}
@@ -0,0 +1,59 @@
+package ass2.spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the enemy model, parsed from OBJ text and through its cache file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjMeshBenchmark {
+
+    private static final String MODEL = "/texture/suzanne.obj";
+
+    private byte[] obj;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = ObjMeshBenchmark.class.getResourceAsStream(MODEL)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            obj = out.toByteArray();
+        }
+        // write the cache file before timing
+        ObjMesh.loadResource(MODEL);
+    }
+
+    @Benchmark
+    public ObjMesh parse() {
+        return ObjMesh.parse(ByteBuffer.wrap(obj));
+    }
+
+    @Benchmark
+    public ObjMesh loadResource() {
+        return ObjMesh.loadResource(MODEL);
+    }
+}
@@ -0,0 +1,77 @@
+package ass2.spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Points and tangents along a road spine, by curve parameter and by distance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoadBenchmark {
+
+    // samples taken per call
+    private static final int SAMPLES = 1024;
+
+    // grid size of the level the road crosses, with one segment per 16 units
+    @Param({"65", "257", "1025"})
+    public int size;
+
+    private Road road;
+    private double[] ts = new double[SAMPLES];
+    private double[] distances = new double[SAMPLES];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        road = new Road(1, Levels.road(size, Math.max(1, size / 16), random));
+        double length = road.length();
+        for (int i = 0; i < SAMPLES; i++) {
+            ts[i] = random.nextDouble() * road.size();
+            distances[i] = random.nextDouble() * length;
+        }
+    }
+
+    @Benchmark
+    public double point() {
+        double sum = 0;
+        for (double t : ts) {
+            sum += road.point(t)[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double tanDeg() {
+        double sum = 0;
+        for (double t : ts) {
+            sum += road.tanDeg(t);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double pointAtDistance() {
+        double sum = 0;
+        for (double d : distances) {
+            sum += road.pointAtDistance(d)[0];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,73 @@
+package ass2.spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terrain altitude lookups and road building for growing grid sizes, mesh generation
+ * is in TerrainMeshBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerrainBenchmark {
+
+    // points looked up per call of altitude()
+    private static final int POINTS = 1024;
+
+    @Param({"65", "257", "1025"})
+    public int size;
+
+    private Terrain terrain;
+    private double[] xs = new double[POINTS];
+    private double[] zs = new double[POINTS];
+    private double[] altitudes = new double[POINTS];
+
+    @Setup
+    public void setUp() {
+        terrain = Levels.create(size);
+        Random random = new Random(POINTS);
+        for (int i = 0; i < POINTS; i++) {
+            xs[i] = random.nextDouble() * (size - 1);
+            zs[i] = random.nextDouble() * (size - 1);
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double altitude() {
+        double sum = 0;
+        for (int i = 0; i < POINTS; i++) {
+            sum += terrain.altitude(xs[i], zs[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double[] altitudes() {
+        terrain.altitudes(xs, zs, altitudes, POINTS);
+        return altitudes;
+    }
+
+    @Benchmark
+    public Terrain buildRoads() {
+        terrain.buildRoads();
+        return terrain;
+    }
+}
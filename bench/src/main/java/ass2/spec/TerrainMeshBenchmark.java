@@ -0,0 +1,55 @@
+package ass2.spec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terrain mesh generation on one thread against the fork join pool, up to the 4097
+ * grids the chunks are built band by band for. Nothing is uploaded, so no GL context
+ * is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerrainMeshBenchmark {
+
+    @Param({"129", "1025", "4097"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean smooth;
+
+    private Terrain terrain;
+
+    @Setup
+    public void setUp() {
+        terrain = Levels.hills(size);
+        terrain.setSmoothNormals(smooth);
+    }
+
+    @Benchmark
+    public Terrain buildChunks() {
+        terrain.buildChunks(null, false);
+        return terrain;
+    }
+
+    @Benchmark
+    public Terrain buildChunksParallel() {
+        terrain.buildChunks(null, true);
+        return terrain;
+    }
+}
@@ -17,4 +17,14 @@ public class Camera extends GameObject {
         gl.glRotated(-rv[2], 0, 0, 1);
         gl.glTranslated(-tv[0], -tv[1], -tv[2]);
     }
+
+    // the matrix applied by draw()
+    public double[][] viewMatrix() {
+        double[] tv = globalTranslation();
+        double[] rv = globalRotation();
+        double[][] m = MathUtils.translation(-tv[0], -tv[1], -tv[2]);
+        m = MathUtils.mult(MathUtils.rotation(-rv[2], 2), m);
+        m = MathUtils.mult(MathUtils.rotation(-rv[1], 1), m);
+        return MathUtils.mult(MathUtils.rotation(-rv[0], 0), m);
+    }
 }
@@ -0,0 +1,71 @@
+package ass2.spec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A repeatable path for the hero to follow in a benchmark: along the spine of every
+ * road in turn, or round the middle of the terrain if it has no roads. Roads of
+ * no length are left out.
+ */
+public class CameraPath {
+
+    // radius of the circle round the middle, as a fraction of the terrain size
+    private static final double ORBIT = 0.35;
+
+    private Terrain myTerrain;
+    private List<Road> myRoads;
+    private double[] myStarts;
+    private double myLength;
+
+    public CameraPath(Terrain terrain) {
+        myTerrain = terrain;
+        myRoads = new ArrayList<>();
+        for (Road road : terrain.roads()) {
+            if (road.length() > 0) {
+                myRoads.add(road);
+            }
+        }
+        myStarts = new double[myRoads.size()];
+        for (int i = 0; i < myRoads.size(); i++) {
+            myStarts[i] = myLength;
+            myLength += myRoads.get(i).length();
+        }
+    }
+
+    // whether the path follows roads rather than a circle
+    public boolean onRoads() {
+        return myLength > 0;
+    }
+
+    /**
+     * Get the pose at some way along the path.
+     *
+     * @param fraction from 0 at the start to 1 at the end
+     * @return x, z and heading in degrees, 0 facing +z
+     */
+    public double[] pose(double fraction) {
+        if (!onRoads()) {
+            double w = myTerrain.size().width - 1;
+            double d = myTerrain.size().height - 1;
+            double r = ORBIT * Math.min(w, d);
+            double angle = 2 * Math.PI * fraction;
+            // facing along the circle
+            return new double[] {
+                    w / 2 + r * Math.sin(angle),
+                    d / 2 + r * Math.cos(angle),
+                    Math.toDegrees(angle) + 90
+            };
+        }
+
+        double distance = MathUtils.clamp(fraction, 0, 1) * myLength;
+        int i = myRoads.size() - 1;
+        while (i > 0 && myStarts[i] > distance) {
+            i--;
+        }
+        Road road = myRoads.get(i);
+        double[] p = road.pointAtDistance(distance - myStarts[i]);
+        double[] t = road.tangentAtDistance(distance - myStarts[i]);
+        return new double[] {p[0], p[1], Math.toDegrees(Math.atan2(t[0], t[1]))};
+    }
+}
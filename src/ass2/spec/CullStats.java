@@ -0,0 +1,55 @@
+package ass2.spec;
+
+/**
+ * Number of objects drawn and culled in the last frame.
+ */
+public class CullStats {
+
+    public enum Kind {
+        CHUNK, TREE, ROAD, ENEMY
+    }
+
+    private int[] drawn = new int[Kind.values().length];
+    private int[] culled = new int[Kind.values().length];
+
+    public void reset() {
+        for (int i = 0; i < drawn.length; i++) {
+            drawn[i] = 0;
+            culled[i] = 0;
+        }
+    }
+
+    public void drawn(Kind kind) {
+        drawn[kind.ordinal()]++;
+    }
+
+    public void culled(Kind kind) {
+        culled[kind.ordinal()]++;
+    }
+
+    public void culled(Kind kind, int count) {
+        culled[kind.ordinal()] += count;
+    }
+
+    public int getDrawn(Kind kind) {
+        return drawn[kind.ordinal()];
+    }
+
+    public int getCulled(Kind kind) {
+        return culled[kind.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Kind kind : Kind.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(kind.name().toLowerCase()).append(": ")
+                    .append(getDrawn(kind)).append(" drawn / ")
+                    .append(getCulled(kind)).append(" culled");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,200 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.TraceGL2;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.Buffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A GL2 pipeline that counts the draw calls made through it and the triangles they
+ * draw, set on a drawable with setGL().
+ *
+ * It is built on the trace pipeline with the trace thrown away, which formats every
+ * call, so frames drawn with it are slower and should not be timed. Immediate mode
+ * counts as one draw call per glBegin(), evaluator meshes as one per glEvalMesh2().
+ */
+public class DrawCounter extends TraceGL2 {
+
+    private long myDrawCalls;
+    private long myTriangles;
+    // mode of the current glBegin() and vertices given since, -1 outside of one
+    private int myBeginMode = -1;
+    private int myBeginVertices;
+
+    public DrawCounter(GL2 gl) {
+        super(gl, new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    public long drawCalls() {
+        return myDrawCalls;
+    }
+
+    public long triangles() {
+        return myTriangles;
+    }
+
+    public void reset() {
+        myDrawCalls = 0;
+        myTriangles = 0;
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        count(mode, count, 1);
+        super.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawArraysInstanced(int mode, int first, int count, int instances) {
+        count(mode, count, instances);
+        super.glDrawArraysInstanced(mode, first, count, instances);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        count(mode, count, 1);
+        super.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, long offset) {
+        count(mode, count, 1);
+        super.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, Buffer indices, int instances) {
+        count(mode, count, instances);
+        super.glDrawElementsInstanced(mode, count, type, indices, instances);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, long offset, int instances) {
+        count(mode, count, instances);
+        super.glDrawElementsInstanced(mode, count, type, offset, instances);
+    }
+
+    @Override
+    public void glMultiDrawArrays(int mode, IntBuffer first, IntBuffer count, int draws) {
+        for (int i = 0; i < draws; i++) {
+            myTriangles += triangles(mode, count.get(count.position() + i));
+        }
+        myDrawCalls++;
+        super.glMultiDrawArrays(mode, first, count, draws);
+    }
+
+    @Override
+    public void glMultiDrawArrays(int mode, int[] first, int firstOffset, int[] count, int countOffset, int draws) {
+        for (int i = 0; i < draws; i++) {
+            myTriangles += triangles(mode, count[countOffset + i]);
+        }
+        myDrawCalls++;
+        super.glMultiDrawArrays(mode, first, firstOffset, count, countOffset, draws);
+    }
+
+    @Override
+    public void glEvalMesh2(int mode, int i1, int i2, int j1, int j2) {
+        myDrawCalls++;
+        if (mode == GL2.GL_FILL) {
+            myTriangles += 2L * (i2 - i1) * (j2 - j1);
+        }
+        super.glEvalMesh2(mode, i1, i2, j1, j2);
+    }
+
+    @Override
+    public void glBegin(int mode) {
+        myBeginMode = mode;
+        myBeginVertices = 0;
+        super.glBegin(mode);
+    }
+
+    @Override
+    public void glEnd() {
+        if (myBeginMode >= 0) {
+            count(myBeginMode, myBeginVertices, 1);
+            myBeginMode = -1;
+        }
+        super.glEnd();
+    }
+
+    // the vertex calls GLUT makes
+
+    @Override
+    public void glVertex2f(float x, float y) {
+        myBeginVertices++;
+        super.glVertex2f(x, y);
+    }
+
+    @Override
+    public void glVertex3f(float x, float y, float z) {
+        myBeginVertices++;
+        super.glVertex3f(x, y, z);
+    }
+
+    @Override
+    public void glVertex3fv(float[] v, int offset) {
+        myBeginVertices++;
+        super.glVertex3fv(v, offset);
+    }
+
+    @Override
+    public void glVertex3fv(FloatBuffer v) {
+        myBeginVertices++;
+        super.glVertex3fv(v);
+    }
+
+    @Override
+    public void glVertex3d(double x, double y, double z) {
+        myBeginVertices++;
+        super.glVertex3d(x, y, z);
+    }
+
+    @Override
+    public void glVertex3dv(double[] v, int offset) {
+        myBeginVertices++;
+        super.glVertex3dv(v, offset);
+    }
+
+    @Override
+    public void glVertex3dv(DoubleBuffer v) {
+        myBeginVertices++;
+        super.glVertex3dv(v);
+    }
+
+    private void count(int mode, int vertices, int instances) {
+        myDrawCalls++;
+        myTriangles += (long) triangles(mode, vertices) * instances;
+    }
+
+    private static int triangles(int mode, int vertices) {
+        switch (mode) {
+            case GL.GL_TRIANGLES:
+                return vertices / 3;
+            case GL.GL_TRIANGLE_STRIP:
+            case GL.GL_TRIANGLE_FAN:
+            case GL2.GL_POLYGON:
+                return Math.max(0, vertices - 2);
+            case GL2.GL_QUADS:
+                return vertices / 4 * 2;
+            case GL2.GL_QUAD_STRIP:
+                return Math.max(0, vertices - 2) / 2 * 2;
+            default:
+                // points and lines
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+/**
+ * The enemy model, loaded once and shared by all enemies.
+ *
+ * Enemies only differ in their translation, rotation around the y axis and scale,
+ * which are passed as per instance attributes, so all visible enemies are drawn
+ * with one instanced call. Without instanced arrays every enemy is drawn on its own,
+ * with its placement as constant attributes.
+ */
+public class EnemyMesh {
+
+    private static final float[] AMBIENT = {0.4f, 0.4f, 0.4f, 1};
+    private static final float[] DIFFUSE = {0.5f, 0.5f, 0.5f, 1};
+    private static final float[] SPECULAR = {0.8f, 0.8f, 0.8f, 1};
+    private static final float PHONG = 10;
+
+    // x, y, z, scale, rotation of each instance
+    private static final int INSTANCE_SIZE = 5;
+
+    private VertexFormat format;
+
+    // vertices, indexes, instances
+    private int[] bufferIds = new int[3];
+    private int vertexCount;
+    private int indexCount;
+    // GL_UNSIGNED_SHORT unless the model has too many vertices
+    private int indexType;
+    // distance of the furthest vertex from the origin of the model
+    private double radius;
+
+    private FloatBuffer myInstances = newFloatBuffer(INSTANCE_SIZE * 64);
+    // whether the context has instanced arrays
+    private boolean instanced;
+
+    private MyTexture myTexture;
+    private ShaderProgram shaderProgram;
+    private int texUnit;
+    private int placementLocation;
+    private int rotationLocation;
+
+    public void init(GL2 gl) {
+        format = VertexFormat.forContext(gl);
+        instanced = gl.isExtensionAvailable("GL_VERSION_3_3") || gl.isExtensionAvailable("GL_ARB_instanced_arrays");
+        ObjMesh mesh = ObjMesh.loadResource("/texture/suzanne.obj");
+        radius = mesh.getRadius();
+
+        // positions, normals and texture coordinates interleaved in one buffer
+        float[] positions = mesh.getPositions();
+        float[] normals = mesh.getNormals();
+        float[] texCoords = mesh.getTexCoords();
+        vertexCount = mesh.vertexCount();
+        ByteBuffer data = format.allocate(vertexCount);
+        for (int i = 0; i < vertexCount; i++) {
+            int a = 3 * i;
+            int b = 2 * i;
+            format.put(data, vertexCount, i,
+                    positions[a], positions[a + 1], positions[a + 2],
+                    normals[a], normals[a + 1], normals[a + 2],
+                    texCoords[b], texCoords[b + 1]);
+        }
+
+        int[] indexes = mesh.getIndexes();
+        indexCount = indexes.length;
+        ByteBuffer indexData;
+        if (vertexCount <= 0xffff) {
+            indexType = GL2.GL_UNSIGNED_SHORT;
+            indexData = ByteBuffer.allocateDirect(indexCount * Short.BYTES).order(ByteOrder.nativeOrder());
+            ShortBuffer shorts = indexData.asShortBuffer();
+            for (int index : indexes) {
+                shorts.put((short) index);
+            }
+        } else {
+            indexType = GL2.GL_UNSIGNED_INT;
+            indexData = ByteBuffer.allocateDirect(indexCount * Integer.BYTES).order(ByteOrder.nativeOrder());
+            IntBuffer ints = indexData.asIntBuffer();
+            ints.put(indexes);
+        }
+
+        gl.glGenBuffers(bufferIds.length, bufferIds, 0);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, bufferIds[0]);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, data.capacity(), data, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, bufferIds[1]);
+        gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, indexData.capacity(), indexData, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        try {
+            shaderProgram = ShaderCache.get(gl, "/shader/enemy_vshader.glsl", "/shader/enemy_fshader.glsl");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(0);
+        }
+
+        texUnit = shaderProgram.uniform("texUnit");
+        placementLocation = shaderProgram.attribute("placement");
+        rotationLocation = shaderProgram.attribute("rotation");
+
+        myTexture = TextureCache.get(gl, "uvmap.jpg");
+    }
+
+    public void release(GL2 gl) {
+        if (bufferIds[0] > 0) {
+            gl.glDeleteBuffers(bufferIds.length, bufferIds, 0);
+            bufferIds[0] = bufferIds[1] = bufferIds[2] = 0;
+        }
+        TextureCache.release(gl, myTexture);
+        myTexture = null;
+        ShaderCache.release(gl, shaderProgram);
+        shaderProgram = null;
+    }
+
+    /**
+     * Draw the model for each of the given enemies.
+     *
+     * @param gl
+     * @param enemies
+     */
+    public void draw(GL2 gl, List<Enemy> enemies) {
+        int count = enemies.size();
+        if (count == 0) {
+            return;
+        }
+
+        if (myInstances.capacity() < INSTANCE_SIZE * count) {
+            myInstances = newFloatBuffer(Math.max(INSTANCE_SIZE * count, 2 * myInstances.capacity()));
+        }
+        myInstances.clear();
+        for (Enemy enemy : enemies) {
+            double[] t = enemy.getTranslation();
+            myInstances.put((float) t[0]).put((float) t[1]).put((float) t[2])
+                    .put((float) enemy.getScale())
+                    .put((float) Math.toRadians(enemy.getRotation()[1]));
+        }
+        myInstances.flip();
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, myTexture.getTextureId());
+
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, AMBIENT, 0);
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, DIFFUSE, 0);
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, SPECULAR, 0);
+        gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, PHONG);
+
+        gl.glUseProgram(shaderProgram.getID());
+
+        gl.glUniform1i(texUnit, 0);
+
+        if (instanced) {
+            int stride = INSTANCE_SIZE * Float.BYTES;
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, bufferIds[2]);
+            gl.glBufferData(GL2.GL_ARRAY_BUFFER, stride * count, myInstances, GL2.GL_STREAM_DRAW);
+            gl.glEnableVertexAttribArray(placementLocation);
+            gl.glVertexAttribPointer(placementLocation, 4, GL2.GL_FLOAT, false, stride, 0);
+            gl.glVertexAttribDivisor(placementLocation, 1);
+            gl.glEnableVertexAttribArray(rotationLocation);
+            gl.glVertexAttribPointer(rotationLocation, 1, GL2.GL_FLOAT, false, stride, 4 * Float.BYTES);
+            gl.glVertexAttribDivisor(rotationLocation, 1);
+        }
+
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, bufferIds[0]);
+        format.enable(gl);
+        format.setPointers(gl, vertexCount);
+
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, bufferIds[1]);
+        if (instanced) {
+            gl.glDrawElementsInstanced(GL2.GL_TRIANGLES, indexCount, indexType, 0, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                int a = INSTANCE_SIZE * i;
+                gl.glVertexAttrib4f(placementLocation, myInstances.get(a), myInstances.get(a + 1),
+                        myInstances.get(a + 2), myInstances.get(a + 3));
+                gl.glVertexAttrib1f(rotationLocation, myInstances.get(a + 4));
+                gl.glDrawElements(GL2.GL_TRIANGLES, indexCount, indexType, 0);
+            }
+        }
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        format.disable(gl);
+        if (instanced) {
+            gl.glVertexAttribDivisor(placementLocation, 0);
+            gl.glVertexAttribDivisor(rotationLocation, 0);
+            gl.glDisableVertexAttribArray(placementLocation);
+            gl.glDisableVertexAttribArray(rotationLocation);
+        }
+
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+        gl.glUseProgram(0);
+    }
+
+    // radius of the model before scaling
+    public double getRadius() {
+        return radius;
+    }
+
+    private static FloatBuffer newFloatBuffer(int size) {
+        return ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,230 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.util.gl2.GLUT;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times the stages of a frame on the CPU with System.nanoTime() and on the GPU
+ * with GL_TIME_ELAPSED queries, over a window of the last frames.
+ *
+ * Stages must not overlap, as only one time query can run at once. GPU results are
+ * read a few frames later so the CPU never waits for them. When disabled begin()
+ * and end() return straight away.
+ */
+public class FrameTimer {
+
+    public enum Stage {
+        CAMERA, LIGHTING, HERO, TERRAIN, TREES, ROADS, ENEMIES, IMPOSTORS
+    }
+
+    private static final int STAGES = Stage.values().length;
+    // frames in the window the percentiles are taken over
+    private static final int WINDOW = 300;
+    // frames before a time query is read back
+    private static final int LATENCY = 4;
+    // frames between updates of the text shown
+    private static final int HUD_INTERVAL = 30;
+
+    private boolean enabled = false;
+    private boolean gpu;
+
+    // milliseconds of the last WINDOW frames, and how many were recorded in total
+    private double[][] myCpu = new double[STAGES][WINDOW];
+    private double[][] myGpu = new double[STAGES][WINDOW];
+    private int[] myCpuCount = new int[STAGES];
+    private int[] myGpuCount = new int[STAGES];
+
+    private long[] myStart = new long[STAGES];
+    // time queries of the last LATENCY frames, and whether they were used
+    private int[][] myQueries;
+    private boolean[][] myPending = new boolean[LATENCY][STAGES];
+    private int myFrame;
+    private int[] myAvailable = new int[1];
+    private long[] myNanos = new long[1];
+
+    private String[] myHud;
+    private GLUT glut = new GLUT();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start or stop timing, the times recorded so far are kept.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        for (boolean[] pending : myPending) {
+            Arrays.fill(pending, false);
+        }
+        myHud = null;
+    }
+
+    // whether anything was timed
+    public boolean hasTimes() {
+        for (int count : myCpuCount) {
+            if (count > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Start a frame and collect the GPU times of an earlier one.
+     *
+     * @param gl
+     */
+    public void beginFrame(GL2 gl) {
+        if (!enabled) {
+            return;
+        }
+        if (myQueries == null) {
+            gpu = gl.isExtensionAvailable("GL_VERSION_3_3") || gl.isExtensionAvailable("GL_ARB_timer_query");
+            if (gpu) {
+                myQueries = new int[LATENCY][STAGES];
+                for (int[] queries : myQueries) {
+                    gl.glGenQueries(STAGES, queries, 0);
+                }
+            }
+        }
+
+        myFrame++;
+        if (!gpu) {
+            return;
+        }
+        int slot = myFrame % LATENCY;
+        for (int s = 0; s < STAGES; s++) {
+            if (!myPending[slot][s]) {
+                continue;
+            }
+            myPending[slot][s] = false;
+            int query = myQueries[slot][s];
+            gl.glGetQueryObjectiv(query, GL2.GL_QUERY_RESULT_AVAILABLE, myAvailable, 0);
+            // still not done after LATENCY frames, skip it rather than wait
+            if (myAvailable[0] != 0) {
+                gl.glGetQueryObjectui64v(query, GL2.GL_QUERY_RESULT, myNanos, 0);
+                myGpu[s][myGpuCount[s]++ % WINDOW] = myNanos[0] / 1e6;
+            }
+        }
+    }
+
+    public void begin(GL2 gl, Stage stage) {
+        if (!enabled) {
+            return;
+        }
+        int s = stage.ordinal();
+        if (gpu) {
+            int slot = myFrame % LATENCY;
+            gl.glBeginQuery(GL2.GL_TIME_ELAPSED, myQueries[slot][s]);
+            myPending[slot][s] = true;
+        }
+        myStart[s] = System.nanoTime();
+    }
+
+    public void end(GL2 gl, Stage stage) {
+        if (!enabled) {
+            return;
+        }
+        int s = stage.ordinal();
+        myCpu[s][myCpuCount[s]++ % WINDOW] = (System.nanoTime() - myStart[s]) / 1e6;
+        if (gpu) {
+            gl.glEndQuery(GL2.GL_TIME_ELAPSED);
+        }
+    }
+
+    /**
+     * A percentile of the times of a stage in the window.
+     *
+     * @param stage
+     * @param onGpu GPU rather than CPU times
+     * @param p from 0 to 100
+     * @return milliseconds, NaN if nothing was timed
+     */
+    public double percentile(Stage stage, boolean onGpu, double p) {
+        int s = stage.ordinal();
+        int count = Math.min(WINDOW, onGpu ? myGpuCount[s] : myCpuCount[s]);
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double[] sorted = Arrays.copyOf(onGpu ? myGpu[s] : myCpu[s], count);
+        Arrays.sort(sorted);
+        // nearest rank
+        int rank = (int) Math.ceil(p / 100 * count);
+        return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+    }
+
+    /**
+     * Draw the percentiles of each stage in the top left corner of the window.
+     *
+     * @param gl
+     * @param height of the window in pixels
+     */
+    public void drawHud(GL2 gl, int height) {
+        if (!enabled) {
+            return;
+        }
+        if (myHud == null || myFrame % HUD_INTERVAL == 0) {
+            myHud = lines();
+        }
+
+        gl.glUseProgram(0);
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT);
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glDisable(GL2.GL_TEXTURE_2D);
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glColor3f(0.8f, 0.1f, 0.1f);
+        for (int i = 0; i < myHud.length; i++) {
+            gl.glWindowPos2i(10, height - 20 - 15 * i);
+            glut.glutBitmapString(GLUT.BITMAP_8_BY_13, myHud[i]);
+        }
+        gl.glPopAttrib();
+    }
+
+    private String[] lines() {
+        String[] lines = new String[STAGES + 1];
+        lines[0] = String.format(Locale.ROOT, "%-10s %21s %21s", "ms", "cpu p50/p95/p99", "gpu p50/p95/p99");
+        for (Stage stage : Stage.values()) {
+            lines[stage.ordinal() + 1] = String.format(Locale.ROOT, "%-10s %6.2f %6.2f %6.2f  %6.2f %6.2f %6.2f",
+                    stage.name().toLowerCase(),
+                    percentile(stage, false, 50), percentile(stage, false, 95), percentile(stage, false, 99),
+                    percentile(stage, true, 50), percentile(stage, true, 95), percentile(stage, true, 99));
+        }
+        return lines;
+    }
+
+    /**
+     * Write the percentiles of each stage as CSV.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeCsv(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("stage,frames,cpu_p50_ms,cpu_p95_ms,cpu_p99_ms,gpu_p50_ms,gpu_p95_ms,gpu_p99_ms");
+            for (Stage stage : Stage.values()) {
+                out.printf(Locale.ROOT, "%s,%d,%.4f,%.4f,%.4f,%.4f,%.4f,%.4f%n",
+                        stage.name().toLowerCase(), Math.min(WINDOW, myCpuCount[stage.ordinal()]),
+                        percentile(stage, false, 50), percentile(stage, false, 95), percentile(stage, false, 99),
+                        percentile(stage, true, 50), percentile(stage, true, 95), percentile(stage, true, 99));
+            }
+        }
+    }
+
+    public void release(GL2 gl) {
+        if (myQueries != null) {
+            for (int[] queries : myQueries) {
+                gl.glDeleteQueries(STAGES, queries, 0);
+            }
+            myQueries = null;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ass2.spec;
+
+/**
+ * The six clipping planes of the view volume in world coordinates,
+ * used to skip objects that cannot be seen.
+ */
+public class Frustum {
+
+    // a, b, c, d of each plane, a point p is inside when a*x + b*y + c*z + d >= 0
+    private double[][] myPlanes = new double[6][4];
+
+    /**
+     * Extract the planes from a combined projection * view matrix.
+     *
+     * @param m row major 4x4 matrix
+     */
+    public void update(double[][] m) {
+        for (int i = 0; i < 3; i++) {
+            double[] min = myPlanes[2 * i];
+            double[] max = myPlanes[2 * i + 1];
+            for (int j = 0; j < 4; j++) {
+                // -w <= row i <= w in clip space
+                min[j] = m[3][j] + m[i][j];
+                max[j] = m[3][j] - m[i][j];
+            }
+            normalize(min);
+            normalize(max);
+        }
+    }
+
+    /**
+     * Extract the planes for a camera with a gluPerspective style projection.
+     *
+     * @param camera
+     * @param fovy vertical field of view in degrees
+     * @param aspect
+     * @param near
+     * @param far
+     */
+    public void update(Camera camera, double fovy, double aspect, double near, double far) {
+        update(MathUtils.mult(MathUtils.perspective(fovy, aspect, near, far), camera.viewMatrix()));
+    }
+
+    public boolean intersectsBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        for (double[] p : myPlanes) {
+            // test the corner furthest along the plane normal
+            double x = p[0] >= 0 ? maxX : minX;
+            double y = p[1] >= 0 ? maxY : minY;
+            double z = p[2] >= 0 ? maxZ : minZ;
+            if (p[0] * x + p[1] * y + p[2] * z + p[3] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void normalize(double[] p) {
+        double mag = Math.sqrt(p[0] * p[0] + p[1] * p[1] + p[2] * p[2]);
+        for (int i = 0; i < 4; i++) {
+            p[i] /= mag;
+        }
+    }
+}
@@ -3,13 +3,19 @@ package ass2.spec;
 import com.jogamp.opengl.*;
 import com.jogamp.opengl.awt.GLJPanel;
 import com.jogamp.opengl.glu.GLU;
+import com.jogamp.opengl.util.Animator;
+import com.jogamp.opengl.util.AnimatorBase;
 import com.jogamp.opengl.util.FPSAnimator;
 
 import javax.swing.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -17,16 +23,40 @@ import java.io.FileNotFoundException;
  *
  * @author malcolmr
  */
-public class Game extends JFrame implements GLEventListener, KeyListener {
+public class Game implements GLEventListener, KeyListener {
+
+    private static final double FOVY = 60;
+    private static final double NEAR = 0.5;
+    private static final double FAR = 20;
+    private static final double IMPOSTOR_DISTANCE = 8;
+    private static final int FPS = 60;
+    private static final String TIMING_FILE = "timing.csv";
 
     private Terrain myTerrain;
     private Hero hero;
     private Camera camera;
+    private Frustum frustum = new Frustum();
+    private double aspect = 1;
+    private int height = 1;
+    private double far = FAR;
+    // frames per second to draw, 0 for as many as possible
+    private int fps = FPS;
+    private boolean vsync = false;
 
     private boolean nightMode = false;
 
+    // input is only read by the simulation, on the GL thread
+    private KeyState keys = new KeyState();
+    private Simulation simulation;
+
+    // stage times, shown with t and written to timingFile on exit
+    private FrameTimer timer = new FrameTimer();
+    private File timingFile = new File(TIMING_FILE);
+
+    // set by RenderBenchmark, which places the hero itself and waits for every frame
+    private boolean benchmark = false;
+
     public Game(Terrain terrain) {
-    	super("Assignment 2");
         myTerrain = terrain;
 
         hero = new Hero(myTerrain);
@@ -35,6 +65,9 @@ public class Game extends JFrame implements GLEventListener, KeyListener {
         camera = new Camera(hero);
         camera.setTranslation(new double[] {0, 0.5, -2});
         camera.setRotation(new double[] {0, 180, 0});
+
+        simulation = new Simulation(hero, keys, this::tick);
+        myTerrain.setFrameTimer(timer);
     }
     
     /** 
@@ -48,31 +81,117 @@ public class Game extends JFrame implements GLEventListener, KeyListener {
         panel.addGLEventListener(this);
         panel.addKeyListener(this);
 
-        // Add an animator to call 'display' at 60fps
-        FPSAnimator animator = new FPSAnimator(60);
+        // Add an animator to call 'display', the game speed does not depend on it
+        AnimatorBase animator = fps > 0 ? new FPSAnimator(fps) : new Animator();
         animator.add(panel);
         animator.start();
 
-        getContentPane().add(panel);
-        setSize(800, 600);
-        setVisible(true);
-        setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        JFrame frame = new JFrame("Assignment 2");
+        frame.getContentPane().add(panel);
+        frame.setSize(800, 600);
+        frame.setVisible(true);
+        // stop drawing first, so dispose() runs on the GL thread before exiting
+        frame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                animator.stop();
+                panel.destroy();
+                System.exit(0);
+            }
+        });
     }
     
     /**
      * Load a level file and display it.
      * 
-     * @param args - The first argument is a level file in JSON format
-     * @throws FileNotFoundException
+     * @param args - The first argument is a level file in JSON format,
+     *             optionally followed by --smooth for smooth terrain normals,
+     *             --lod for smooth normals and level of detail,
+     *             --impostors[=distance] to draw distant trees and enemies as impostors,
+     *             --far=distance to change the draw distance,
+     *             --road-tolerance=distance to change how closely roads follow their curves,
+     *             --fps=n to draw n frames per second, 0 for as many as possible,
+     *             --vsync to wait for the display between frames
+     *             and --timing[=file] to time the stages of each frame from the start.
+     *             With --bench[=frames] every level file given is drawn offscreen instead,
+     *             see RenderBenchmark.
+     * @throws IOException
      */
-    public static void main(String[] args) throws FileNotFoundException {
-        File file = new File(args[0]);
-        //File file = new File("level.json");
-        Terrain terrain = LevelIO.load(file);
+    public static void main(String[] args) throws IOException {
+        List<File> levels = new ArrayList<>();
+        List<String> options = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                options.add(arg);
+            } else {
+                levels.add(new File(arg));
+            }
+        }
+        for (String option : options) {
+            if (option.equals("--bench") || option.startsWith("--bench=")) {
+                RenderBenchmark.run(levels, options);
+                return;
+            }
+        }
+
+        Terrain terrain = LevelIO.load(levels.get(0));
         Game game = new Game(terrain);
+        game.configure(options);
         game.run();
     }
 
+    /**
+     * Apply command line options to the game and its terrain, before it is drawn.
+     *
+     * @param options
+     */
+    void configure(List<String> options) {
+        for (String option : options) {
+            if (option.equals("--smooth")) {
+                myTerrain.setSmoothNormals(true);
+            } else if (option.equals("--lod")) {
+                myTerrain.setSmoothNormals(true);
+                myTerrain.setLevelOfDetail(true);
+            } else if (option.equals("--impostors")) {
+                myTerrain.setImpostorDistance(IMPOSTOR_DISTANCE);
+            } else if (option.startsWith("--impostors=")) {
+                myTerrain.setImpostorDistance(Double.parseDouble(option.substring("--impostors=".length())));
+            } else if (option.startsWith("--far=")) {
+                far = Double.parseDouble(option.substring("--far=".length()));
+            } else if (option.startsWith("--road-tolerance=")) {
+                myTerrain.setRoadTolerance(Double.parseDouble(option.substring("--road-tolerance=".length())));
+            } else if (option.startsWith("--fps=")) {
+                fps = Integer.parseInt(option.substring("--fps=".length()));
+            } else if (option.equals("--vsync")) {
+                vsync = true;
+            } else if (option.equals("--timing")) {
+                timer.setEnabled(true);
+            } else if (option.startsWith("--timing=")) {
+                timingFile = new File(option.substring("--timing=".length()));
+                timer.setEnabled(true);
+            }
+        }
+    }
+
+    Hero getHero() {
+        return hero;
+    }
+
+    FrameTimer getTimer() {
+        return timer;
+    }
+
+    /**
+     * Draw for a benchmark: the hero is not moved by the simulation, and every frame
+     * waits until the GPU is done so it can be timed.
+     *
+     * @param benchmark
+     */
+    void setBenchmark(boolean benchmark) {
+        this.benchmark = benchmark;
+    }
+
     @Override
     public void init(GLAutoDrawable drawable) {
         GL2 gl = drawable.getGL().getGL2();
@@ -92,6 +211,10 @@ public class Game extends JFrame implements GLEventListener, KeyListener {
         // Turn on OpenGL texturing.
         gl.glEnable(GL2.GL_TEXTURE_2D);
 
+        if (vsync) {
+            gl.setSwapInterval(1);
+        }
+
         hero.init(gl);
         myTerrain.initAll(gl);
     }
@@ -100,6 +223,13 @@ public class Game extends JFrame implements GLEventListener, KeyListener {
 	public void display(GLAutoDrawable drawable) {
 	    GL2 gl = drawable.getGL().getGL2();
 
+        if (!benchmark) {
+            simulation.advance(System.nanoTime());
+            // draw the hero between the last two ticks
+            simulation.beginDraw();
+        }
+        timer.beginFrame(gl);
+
         gl.glClearColor(1, 1, 1, 1);
         gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
 
@@ -107,9 +237,13 @@ public class Game extends JFrame implements GLEventListener, KeyListener {
         gl.glLoadIdentity();
 
         // place the camera
+        timer.begin(gl, FrameTimer.Stage.CAMERA);
         camera.draw(gl);
+        frustum.update(camera, FOVY, aspect, NEAR, far);
+        timer.end(gl, FrameTimer.Stage.CAMERA);
 
         // set lighting
+        timer.begin(gl, FrameTimer.Stage.LIGHTING);
         float[] lightDir = myTerrain.getSunlight();
         // w == 0 represents that it's a vector than a point
         // which means it's a directional light
@@ -169,8 +303,22 @@ public class Game extends JFrame implements GLEventListener, KeyListener {
             gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_SPECULAR, new float[] {0, 0, 0, 1}, 0);
         }
 
+        timer.end(gl, FrameTimer.Stage.LIGHTING);
+
+        timer.begin(gl, FrameTimer.Stage.HERO);
         hero.draw(gl);
-        myTerrain.drawAll(gl);
+        timer.end(gl, FrameTimer.Stage.HERO);
+
+        myTerrain.drawAll(gl, frustum, camera.globalTranslation());
+
+        if (!benchmark) {
+            timer.drawHud(gl, height);
+        }
+        simulation.endDraw();
+
+        if (benchmark) {
+            gl.glFinish();
+        }
 	}
 
 	@Override
@@ -179,43 +327,73 @@ public class Game extends JFrame implements GLEventListener, KeyListener {
         gl.glMatrixMode(GL2.GL_PROJECTION);
         gl.glLoadIdentity();
 
+        aspect = (float) width / (float) height;
+        this.height = height;
         GLU glu = new GLU();
-        glu.gluPerspective(60, (float) width / (float) height, 0.5, 20); // keep the aspect ratio
+        glu.gluPerspective(FOVY, aspect, NEAR, far); // keep the aspect ratio
 	}
 
     @Override
-    public void dispose(GLAutoDrawable drawable) {}
+    public void dispose(GLAutoDrawable drawable) {
+        GL2 gl = drawable.getGL().getGL2();
+        hero.release(gl);
+        myTerrain.releaseAll(gl);
+
+        timer.release(gl);
+        if (timer.hasTimes() && !benchmark) {
+            try {
+                timer.writeCsv(timingFile);
+                System.out.println("frame timing written to " + timingFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-    @Override
-    public void keyPressed(KeyEvent e) {
-        double rad = 0;
-        switch (e.getKeyCode()) {
-            case KeyEvent.VK_UP:
-                hero.moveForward();
-                break;
-            case KeyEvent.VK_DOWN:
-                hero.moveBackward();
-                break;
-            case KeyEvent.VK_LEFT:
-                hero.turnLeft();
-                break;
-            case KeyEvent.VK_RIGHT:
-                hero.turnRight();
-                break;
-            case KeyEvent.VK_N:
-                nightMode = !nightMode;
-                break;
-            case KeyEvent.VK_M:
-                myTerrain.toggleUseNormalMap();
-                break;
-            default:
-                break;
+    // one step of the game, called by the simulation on the GL thread
+    private void tick(boolean[] down, double seconds) {
+        if (down[KeyEvent.VK_UP]) {
+            hero.move(Hero.SPEED * seconds);
+        }
+        if (down[KeyEvent.VK_DOWN]) {
+            hero.move(-Hero.SPEED * seconds);
+        }
+        if (down[KeyEvent.VK_LEFT]) {
+            hero.turn(Hero.TURN_SPEED * seconds);
+        }
+        if (down[KeyEvent.VK_RIGHT]) {
+            hero.turn(-Hero.TURN_SPEED * seconds);
+        }
+
+        for (int key = keys.nextPress(); key >= 0; key = keys.nextPress()) {
+            switch (key) {
+                case KeyEvent.VK_N:
+                    nightMode = !nightMode;
+                    break;
+                case KeyEvent.VK_M:
+                    myTerrain.toggleUseNormalMap();
+                    break;
+                case KeyEvent.VK_C:
+                    System.out.println(myTerrain.getCullStats());
+                    System.out.println(TextureCache.stats());
+                    break;
+                case KeyEvent.VK_T:
+                    timer.setEnabled(!timer.isEnabled());
+                    break;
+                default:
+                    break;
+            }
         }
     }
 
     @Override
-    public void keyReleased(KeyEvent keyEvent) {
+    public void keyPressed(KeyEvent e) {
+        keys.press(e.getKeyCode());
+    }
 
+    @Override
+    public void keyReleased(KeyEvent e) {
+        keys.release(e.getKeyCode());
     }
 
     @Override
@@ -3,6 +3,9 @@ package ass2.spec;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.util.gl2.GLUT;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Hero extends GameObject {
 
     private float[] AMBIENT = {0.6f, 0.6f, 0.6f, 1};
@@ -12,20 +15,40 @@ public class Hero extends GameObject {
 
     private static final double STEP_LENGTH = 0.4;
     private static final int TURN_ANGLE = 5;
+    // walking and turning speed per second for the fixed time step
+    public static final double SPEED = 6;
+    public static final double TURN_SPEED = 150;
     private static final double HERO_SIZE = 0.1;
+    // the teapot fits in this circle, seen from above
+    static final double HERO_RADIUS = 0.16;
+    // longest part of a step taken at once, so the hero never jumps over a trunk
+    private static final double SUB_STEP = 0.1;
+    // rounds of pushing the hero out of obstacles per sub step
+    private static final int PUSH_ROUNDS = 4;
 
     private double originalHeight = HERO_SIZE;
 
     private Terrain terrain;
     private MyTexture myTexture;
 
+    // obstacles near the current step, reused between steps
+    private List<Tree> myNearTrees = new ArrayList<>();
+    private List<Enemy> myNearEnemies = new ArrayList<>();
+    // whether obstacles are found with the spatial indexes, or all are tested
+    private boolean myIndexed = true;
+
     public Hero(Terrain terrain) {
         this.terrain = terrain;
         getTranslation()[1] = HERO_SIZE + terrain.altitude(0, 0);
     }
 
     public void init(GL2 gl) {
-        myTexture = new MyTexture(gl, "metal.jpg");
+        myTexture = TextureCache.get(gl, "metal.jpg");
+    }
+
+    public void release(GL2 gl) {
+        TextureCache.release(gl, myTexture);
+        myTexture = null;
     }
 
     @Override
@@ -51,24 +74,119 @@ public class Hero extends GameObject {
         getRotation()[1] -= TURN_ANGLE;
     }
 
+    // turn left by an angle in degrees, right if negative
+    public void turn(double degrees) {
+        getRotation()[1] += degrees;
+    }
+
     public void moveForward() {
-        double degree = getRotation()[1];
-        double rad = Math.toRadians(degree);
-        getTranslation()[0] += STEP_LENGTH * Math.sin(rad);
-        getTranslation()[2] += STEP_LENGTH * Math.cos(rad);
-        getTranslation()[0] = MathUtils.clamp(getTranslation()[0], 0, terrain.size().width - 1);
-        getTranslation()[2] = MathUtils.clamp(getTranslation()[2], 0, terrain.size().height - 1);
-        getTranslation()[1] = HERO_SIZE + terrain.altitude(getTranslation()[0], getTranslation()[2]);
+        move(STEP_LENGTH);
     }
 
     public void moveBackward() {
-        double degree = getRotation()[1];
-        double rad = Math.toRadians(degree);
-        getTranslation()[0] -= STEP_LENGTH * Math.sin(rad);
-        getTranslation()[2] -= STEP_LENGTH * Math.cos(rad);
-        getTranslation()[0] = MathUtils.clamp(getTranslation()[0], 0, terrain.size().width - 1);
-        getTranslation()[2] = MathUtils.clamp(getTranslation()[2], 0, terrain.size().height - 1);
-        getTranslation()[1] = HERO_SIZE + terrain.altitude(getTranslation()[0], getTranslation()[2]);
+        move(-STEP_LENGTH);
+    }
+
+    /**
+     * Put the hero on the ground at a position, facing a heading, without collisions.
+     *
+     * @param x
+     * @param z
+     * @param degrees heading, 0 faces +z
+     */
+    public void place(double x, double z, double degrees) {
+        double[] t = getTranslation();
+        t[0] = MathUtils.clamp(x, 0, terrain.size().width - 1);
+        t[2] = MathUtils.clamp(z, 0, terrain.size().height - 1);
+        t[1] = HERO_SIZE + terrain.altitude(t[0], t[2]);
+        getRotation()[1] = degrees;
+    }
+
+    /**
+     * Walk along the current heading, sliding around tree trunks and enemies.
+     * Only the obstacles the spatial indexes find near the step are tested.
+     *
+     * @param distance negative to walk backwards
+     */
+    public void move(double distance) {
+        double rad = Math.toRadians(getRotation()[1]);
+        double[] t = getTranslation();
+
+        List<Tree> trees = terrain.trees();
+        List<Enemy> enemies = terrain.enemies();
+        if (myIndexed) {
+            double reach = Math.abs(distance) + HERO_RADIUS;
+            myNearTrees.clear();
+            terrain.treeIndex().queryRadius(t[0], t[2], reach, myNearTrees);
+            myNearEnemies.clear();
+            terrain.enemyIndex().queryRadius(t[0], t[2], reach, myNearEnemies);
+            trees = myNearTrees;
+            enemies = myNearEnemies;
+        }
+
+        int steps = (int) Math.ceil(Math.abs(distance) / SUB_STEP);
+        for (int i = 0; i < steps; i++) {
+            t[0] += distance / steps * Math.sin(rad);
+            t[2] += distance / steps * Math.cos(rad);
+            t[0] = MathUtils.clamp(t[0], 0, terrain.size().width - 1);
+            t[2] = MathUtils.clamp(t[2], 0, terrain.size().height - 1);
+            t[1] = HERO_SIZE + terrain.altitude(t[0], t[2]);
+            for (int round = 0; round < PUSH_ROUNDS && pushOut(t, trees, enemies); round++) {
+                t[0] = MathUtils.clamp(t[0], 0, terrain.size().width - 1);
+                t[2] = MathUtils.clamp(t[2], 0, terrain.size().height - 1);
+                t[1] = HERO_SIZE + terrain.altitude(t[0], t[2]);
+            }
+        }
+    }
+
+    // test every obstacle instead of asking the spatial indexes, to compare against
+    void setIndexed(boolean indexed) {
+        myIndexed = indexed;
+    }
+
+    /**
+     * Push a position out of obstacles.
+     *
+     * @param t position of the hero, changed in place
+     * @param trees
+     * @param enemies
+     * @return whether it had to be pushed
+     */
+    private boolean pushOut(double[] t, List<Tree> trees, List<Enemy> enemies) {
+        boolean pushed = false;
+        for (Tree tree : trees) {
+            double[] p = tree.getPosition();
+            pushed |= pushOut(t, p[0], p[2], Tree.CYLINDER_RADIUS + HERO_RADIUS);
+        }
+        for (Enemy enemy : enemies) {
+            // the bounding sphere cut at the height of the hero, grown by the hero
+            double[] p = enemy.getTranslation();
+            double r = enemy.getRadius() * enemy.getScale() + HERO_RADIUS;
+            double dy = t[1] - p[1];
+            if (dy * dy < r * r) {
+                pushed |= pushOut(t, p[0], p[2], Math.sqrt(r * r - dy * dy));
+            }
+        }
+        return pushed;
+    }
+
+    // move a position out of a circle in x and z to its edge
+    private static boolean pushOut(double[] t, double x, double z, double radius) {
+        double dx = t[0] - x;
+        double dz = t[2] - z;
+        double d2 = dx * dx + dz * dz;
+        if (d2 >= radius * radius) {
+            return false;
+        }
+        double d = Math.sqrt(d2);
+        if (d == 0) {
+            // right on the centre, any way out will do
+            dx = 1;
+            d = 1;
+        }
+        t[0] = x + dx / d * radius;
+        t[2] = z + dz / d * radius;
+        return true;
     }
 
     public double getOriginalHeight() {
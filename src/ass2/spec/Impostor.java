@@ -0,0 +1,284 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A billboard stand-in for objects far away from the viewer.
+ *
+ * At load time the object is rendered from VIEWS directions around the y axis into one
+ * row of an atlas texture. Distant objects are then drawn as quads turned towards the
+ * viewer, showing the view closest to the direction they are seen from. All quads added
+ * in a frame are drawn together with a single call.
+ */
+public class Impostor {
+
+    // directions the object is rendered from, evenly spaced around the y axis
+    public static final int VIEWS = 8;
+    // size of one view in the atlas in pixels
+    private static final int CELL_SIZE = 128;
+
+    // x, y, z, s, t, fade of each corner
+    private static final int VERTEX_SIZE = 6;
+
+    /**
+     * Draws the object in its own coordinates with whatever shader and textures it needs.
+     */
+    public interface Model {
+        void draw(GL2 gl);
+    }
+
+    private int[] myAtlas = new int[1];
+    private int[] myBufferIds = new int[1];
+    // height of the centre of the object and half the size of its quad, in model units
+    private double myCentre;
+    private double myRadius;
+
+    private FloatBuffer myQuads = newFloatBuffer(4 * VERTEX_SIZE * 64);
+    private int myCount;
+
+    private ShaderProgram shaderProgram;
+    private int texUnit;
+    private int fadeLocation;
+
+    /**
+     * Render the views of a model into the atlas.
+     *
+     * @param gl
+     * @param model
+     * @param centre height of the centre of the model above its origin
+     * @param radius the model fits in a sphere with this radius around its centre
+     */
+    public void init(GL2 gl, Model model, double centre, double radius) {
+        myCentre = centre;
+        myRadius = radius;
+
+        gl.glGenTextures(1, myAtlas, 0);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, myAtlas[0]);
+        gl.glTexImage2D(GL2.GL_TEXTURE_2D, 0, GL2.GL_RGBA, VIEWS * CELL_SIZE, CELL_SIZE, 0,
+                GL2.GL_RGBA, GL2.GL_UNSIGNED_BYTE, null);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP_TO_EDGE);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+
+        render(gl, model);
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, myAtlas[0]);
+        gl.glGenerateMipmap(GL2.GL_TEXTURE_2D);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+
+        gl.glGenBuffers(1, myBufferIds, 0);
+
+        try {
+            shaderProgram = ShaderCache.get(gl, "/shader/impostor_vshader.glsl", "/shader/impostor_fshader.glsl");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(0);
+        }
+        texUnit = shaderProgram.uniform("texUnit");
+        fadeLocation = shaderProgram.attribute("opacity");
+    }
+
+    // draw the model into the atlas through a frame buffer object
+    private void render(GL2 gl, Model model) {
+        // the panel may already be drawing into a frame buffer of its own
+        int[] previous = new int[1];
+        gl.glGetIntegerv(GL2.GL_FRAMEBUFFER_BINDING, previous, 0);
+
+        int[] frameBuffer = new int[1];
+        int[] depthBuffer = new int[1];
+        gl.glGenFramebuffers(1, frameBuffer, 0);
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, frameBuffer[0]);
+        gl.glFramebufferTexture2D(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0, GL2.GL_TEXTURE_2D, myAtlas[0], 0);
+        gl.glGenRenderbuffers(1, depthBuffer, 0);
+        gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, depthBuffer[0]);
+        gl.glRenderbufferStorage(GL2.GL_RENDERBUFFER, GL2.GL_DEPTH_COMPONENT24, VIEWS * CELL_SIZE, CELL_SIZE);
+        gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_DEPTH_ATTACHMENT, GL2.GL_RENDERBUFFER, depthBuffer[0]);
+
+        int status = gl.glCheckFramebufferStatus(GL2.GL_FRAMEBUFFER);
+        if (status != GL2.GL_FRAMEBUFFER_COMPLETE) {
+            throw new ImpostorException("frame buffer incomplete: " + status);
+        }
+
+        gl.glPushAttrib(GL2.GL_VIEWPORT_BIT | GL2.GL_COLOR_BUFFER_BIT | GL2.GL_LIGHTING_BIT);
+        gl.glViewport(0, 0, VIEWS * CELL_SIZE, CELL_SIZE);
+        gl.glClearColor(0, 0, 0, 0);
+        gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
+
+        // only ambient light, the impostors are lit when they are drawn
+        float[] black = {0, 0, 0, 1};
+        gl.glLightModelfv(GL2.GL_LIGHT_MODEL_AMBIENT, black, 0);
+        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, new float[] {1, 1, 1, 1}, 0);
+        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, black, 0);
+        gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_SPECULAR, black, 0);
+        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_AMBIENT, black, 0);
+        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_DIFFUSE, black, 0);
+        gl.glLightfv(GL2.GL_LIGHT1, GL2.GL_SPECULAR, black, 0);
+
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(-myRadius, myRadius, -myRadius, myRadius, -myRadius, myRadius);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+
+        for (int view = 0; view < VIEWS; view++) {
+            gl.glViewport(view * CELL_SIZE, 0, CELL_SIZE, CELL_SIZE);
+            // looking down -z at the model turned so the view direction comes from the front
+            gl.glLoadIdentity();
+            gl.glRotated(-viewAngle(view), 0, 1, 0);
+            gl.glTranslated(0, -myCentre, 0);
+            model.draw(gl);
+        }
+
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPopAttrib();
+
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, previous[0]);
+        gl.glDeleteRenderbuffers(1, depthBuffer, 0);
+        gl.glDeleteFramebuffers(1, frameBuffer, 0);
+    }
+
+    // direction of a view in degrees around the y axis, 0 looks from +z
+    private static double viewAngle(int view) {
+        return 360.0 * view / VIEWS;
+    }
+
+    public void release(GL2 gl) {
+        if (myAtlas[0] > 0) {
+            gl.glDeleteTextures(1, myAtlas, 0);
+            gl.glDeleteBuffers(1, myBufferIds, 0);
+            myAtlas[0] = 0;
+            myBufferIds[0] = 0;
+        }
+        ShaderCache.release(gl, shaderProgram);
+        shaderProgram = null;
+    }
+
+    /**
+     * Queue an impostor for the next draw().
+     *
+     * @param position origin of the object
+     * @param rotation rotation of the object around the y axis in degrees
+     * @param scale
+     * @param eye position of the viewer
+     * @param fade opacity between 0 and 1, for cross fading with the real object
+     */
+    public void add(double[] position, double rotation, double scale, double[] eye, double fade) {
+        double dx = eye[0] - position[0];
+        double dz = eye[2] - position[2];
+        double length = Math.sqrt(dx * dx + dz * dz);
+        if (length == 0) {
+            return;
+        }
+
+        // the view closest to the direction the object is seen from, in its own coordinates
+        double angle = Math.toDegrees(Math.atan2(dx, dz)) - rotation;
+        int view = (int) Math.round(angle * VIEWS / 360) % VIEWS;
+        if (view < 0) {
+            view += VIEWS;
+        }
+        float s0 = (float) view / VIEWS;
+        float s1 = (float) (view + 1) / VIEWS;
+
+        // turned around the y axis only, like the views were rendered
+        double size = myRadius * scale;
+        double rightX = dz / length * size;
+        double rightZ = -dx / length * size;
+        double x = position[0];
+        double y = position[1] + myCentre * scale;
+        double z = position[2];
+
+        if (myQuads.remaining() < 4 * VERTEX_SIZE) {
+            FloatBuffer quads = newFloatBuffer(2 * myQuads.capacity());
+            myQuads.flip();
+            quads.put(myQuads);
+            myQuads = quads;
+        }
+        put(x - rightX, y - size, z - rightZ, s0, 0, fade);
+        put(x + rightX, y - size, z + rightZ, s1, 0, fade);
+        put(x + rightX, y + size, z + rightZ, s1, 1, fade);
+        put(x - rightX, y + size, z - rightZ, s0, 1, fade);
+        myCount++;
+    }
+
+    private void put(double x, double y, double z, float s, float t, double fade) {
+        myQuads.put((float) x).put((float) y).put((float) z).put(s).put(t).put((float) fade);
+    }
+
+    /**
+     * Draw and clear the impostors queued since the last call.
+     *
+     * @param gl
+     */
+    public void draw(GL2 gl) {
+        if (myCount == 0) {
+            return;
+        }
+        myQuads.flip();
+
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, myQuads.limit() * Float.BYTES, myQuads, GL2.GL_STREAM_DRAW);
+
+        int stride = VERTEX_SIZE * Float.BYTES;
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        gl.glVertexPointer(3, GL2.GL_FLOAT, stride, 0);
+        gl.glTexCoordPointer(2, GL2.GL_FLOAT, stride, 3 * Float.BYTES);
+        if (fadeLocation >= 0) {
+            gl.glEnableVertexAttribArray(fadeLocation);
+            gl.glVertexAttribPointer(fadeLocation, 1, GL2.GL_FLOAT, false, stride, 5 * Float.BYTES);
+        }
+
+        gl.glEnable(GL2.GL_BLEND);
+        gl.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
+        // quads are seen from both sides when the viewer passes over them
+        gl.glDisable(GL2.GL_CULL_FACE);
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, myAtlas[0]);
+        gl.glUseProgram(shaderProgram.getID());
+        gl.glUniform1i(texUnit, 0);
+
+        gl.glDrawArrays(GL2.GL_QUADS, 0, 4 * myCount);
+
+        gl.glUseProgram(0);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        gl.glEnable(GL2.GL_CULL_FACE);
+        gl.glDisable(GL2.GL_BLEND);
+
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        if (fadeLocation >= 0) {
+            gl.glDisableVertexAttribArray(fadeLocation);
+        }
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+        myQuads.clear();
+        myCount = 0;
+    }
+
+    // number of impostors queued
+    public int size() {
+        return myCount;
+    }
+
+    private static FloatBuffer newFloatBuffer(int size) {
+        return ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    static public class ImpostorException extends RuntimeException {
+
+        public ImpostorException(String message) {
+            super(message);
+        }
+
+    }
+}
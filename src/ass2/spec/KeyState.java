@@ -0,0 +1,64 @@
+package ass2.spec;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Keys held down, written by the AWT event thread and read by the simulation.
+ *
+ * A key counts as down in a snapshot if it is held, or was pressed at any time since
+ * the last snapshot, so a short tap between two ticks is not lost. Key presses are also
+ * queued for keys that toggle something once per press.
+ */
+public class KeyState {
+
+    private static final int KEYS = 256;
+
+    private final boolean[] myDown = new boolean[KEYS];
+    // pressed since the last snapshot
+    private final boolean[] myTapped = new boolean[KEYS];
+    private final Queue<Integer> myPresses = new ArrayDeque<>();
+
+    public synchronized void press(int keyCode) {
+        if (keyCode >= 0 && keyCode < KEYS) {
+            // key repeat sends more presses while held
+            if (!myDown[keyCode]) {
+                myPresses.add(keyCode);
+            }
+            myDown[keyCode] = true;
+            myTapped[keyCode] = true;
+        }
+    }
+
+    public synchronized void release(int keyCode) {
+        if (keyCode >= 0 && keyCode < KEYS) {
+            myDown[keyCode] = false;
+        }
+    }
+
+    /**
+     * Copy the keys that are or were down since the last snapshot.
+     *
+     * @param down indexed by key code, at least 256 long
+     */
+    public synchronized void snapshot(boolean[] down) {
+        for (int i = 0; i < KEYS; i++) {
+            down[i] = myDown[i] || myTapped[i];
+            myTapped[i] = false;
+        }
+    }
+
+    /**
+     * Take the next key press in the order they happened.
+     *
+     * @return a key code, or -1 if there are no more
+     */
+    public synchronized int nextPress() {
+        Integer key = myPresses.poll();
+        return key == null ? -1 : key;
+    }
+
+    public static int size() {
+        return KEYS;
+    }
+}
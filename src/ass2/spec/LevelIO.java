@@ -2,10 +2,16 @@ package ass2.spec;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 import java.awt.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
  * COMMENT: Comment LevelIO 
@@ -14,82 +20,41 @@ import java.io.*;
  */
 public class LevelIO {
 
+    // binary level format, all values little endian:
+    //
+    // header (48 bytes)
+    //   magic "A2LV", int version, int width, int depth, float[3] sunlight,
+    //   int bytes per altitude (4 or 8), int trees, int roads, int enemies, int reserved
+    // altitudes     width * depth floats or doubles, x changes fastest like in the JSON files
+    // trees         double x, double z
+    // roads         double width, int number of spine values, int reserved, double[] spine
+    // enemies       double x, y, z, rotation, scale as placed in the terrain
+    private static final byte[] MAGIC = "A2LV".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+
     /**
-     * Load a terrain object from a JSON file
+     * Load a terrain object from a JSON file.
+     * 
+     * The file is streamed through LevelParser, numbers go straight into the terrain
+     * without building the whole JSON document in memory first.
      * 
      * @param mapFile
      * @return
      * @throws FileNotFoundException 
      */
     public static Terrain load(File mapFile) throws FileNotFoundException {
-
-        Reader in = new FileReader(mapFile);
-        JSONTokener jtk = new JSONTokener(in);
-        JSONObject jsonTerrain = new JSONObject(jtk);
-
-        int width = jsonTerrain.getInt("width");
-        int depth = jsonTerrain.getInt("depth");
-        Terrain terrain = new Terrain(width, depth);
-
-        JSONArray jsonSun = jsonTerrain.getJSONArray("sunlight");
-        float dx = (float)jsonSun.getDouble(0);
-        float dy = (float)jsonSun.getDouble(1);
-        float dz = (float)jsonSun.getDouble(2);
-        terrain.setSunlightDir(dx, dy, dz);
-       
-        JSONArray jsonAltitude = jsonTerrain.getJSONArray("altitude");
-        for (int i = 0; i < jsonAltitude.length(); i++) {
-            int x = i % width;
-            int z = i / width;
-
-            double h = jsonAltitude.getDouble(i);
-            terrain.setGridAltitude(x, z, h);
-        }
-
-        if (jsonTerrain.has("trees")) {
-            JSONArray jsonTrees = jsonTerrain.getJSONArray("trees");
-            for (int i = 0; i < jsonTrees.length(); i++) {
-                JSONObject jsonTree = jsonTrees.getJSONObject(i);
-                double x = jsonTree.getDouble("x");
-                double z = jsonTree.getDouble("z");
-                terrain.addTree(x, z);
-            }
-        }
-        
-        if (jsonTerrain.has("roads")) {
-            JSONArray jsonRoads = jsonTerrain.getJSONArray("roads");
-            for (int i = 0; i < jsonRoads.length(); i++) {
-                JSONObject jsonRoad = jsonRoads.getJSONObject(i);
-                double w = jsonRoad.getDouble("width");
-                
-                JSONArray jsonSpine = jsonRoad.getJSONArray("spine");
-                double[] spine = new double[jsonSpine.length()];
-                
-                for (int j = 0; j < jsonSpine.length(); j++) {
-                    spine[j] = jsonSpine.getDouble(j);
-                }
-                terrain.addRoad(w, spine);
-            }
+        if (isBinary(mapFile)) {
+            return loadBinary(mapFile);
         }
 
-        if (jsonTerrain.has("enemies")) {
-            JSONArray jsonEnemies = jsonTerrain.getJSONArray("enemies");
-            for (int i = 0; i < jsonEnemies.length(); i++) {
-                JSONObject jsonEnemy = jsonEnemies.getJSONObject(i);
-                double x = jsonEnemy.getDouble("x");
-                double z = jsonEnemy.getDouble("z");
-                double rotation = 0;
-                if (jsonEnemy.has("rotation")) {
-                    rotation = jsonEnemy.getDouble("rotation");
-                }
-                double scale = 1;
-                if (jsonEnemy.has("scale")) {
-                    scale = jsonEnemy.getDouble("scale");
-                }
-                terrain.addEnemy(x, z, rotation, scale);
-            }
+        try (Reader in = new FileReader(mapFile)) {
+            return new LevelParser(in).parse();
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return terrain;
     }
 
     /**
@@ -154,13 +119,221 @@ public class LevelIO {
 
     }
     
+    /**
+     * Check if a file starts with the magic of the binary level format.
+     * 
+     * @param file
+     * @return
+     * @throws FileNotFoundException
+     */
+    public static boolean isBinary(File file) throws FileNotFoundException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] magic = new byte[MAGIC.length];
+            int n = 0;
+            while (n < magic.length) {
+                int read = in.read(magic, n, magic.length - n);
+                if (read < 0) {
+                    return false;
+                }
+                n += read;
+            }
+            return Arrays.equals(magic, MAGIC);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Load a terrain object from a binary level file. The file is memory mapped and the
+     * values are read straight from the mapping.
+     * 
+     * @param mapFile
+     * @return
+     * @throws FileNotFoundException
+     */
+    public static Terrain loadBinary(File mapFile) throws FileNotFoundException {
+        if (!mapFile.isFile()) {
+            throw new FileNotFoundException(mapFile.getPath());
+        }
+        try (FileChannel channel = FileChannel.open(mapFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return readBinary(map);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Terrain readBinary(ByteBuffer in) {
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IllegalArgumentException("not a binary level file");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported binary level version " + version);
+        }
+
+        int width = in.getInt();
+        int depth = in.getInt();
+        Terrain terrain = new Terrain(width, depth);
+        float dx = in.getFloat();
+        float dy = in.getFloat();
+        float dz = in.getFloat();
+        terrain.setSunlightDir(dx, dy, dz);
+        int altitudeBytes = in.getInt();
+        int trees = in.getInt();
+        int roads = in.getInt();
+        int enemies = in.getInt();
+        in.position(HEADER_SIZE);
+
+        for (int z = 0; z < depth; z++) {
+            for (int x = 0; x < width; x++) {
+                double h = altitudeBytes == Float.BYTES ? in.getFloat() : in.getDouble();
+                terrain.setGridAltitude(x, z, h);
+            }
+        }
+
+        for (int i = 0; i < trees; i++) {
+            double x = in.getDouble();
+            double z = in.getDouble();
+            terrain.addTree(x, z);
+        }
+
+        for (int i = 0; i < roads; i++) {
+            double w = in.getDouble();
+            double[] spine = new double[in.getInt()];
+            in.getInt();
+            for (int j = 0; j < spine.length; j++) {
+                spine[j] = in.getDouble();
+            }
+            terrain.addRoad(w, spine);
+        }
+
+        for (int i = 0; i < enemies; i++) {
+            Enemy enemy = new Enemy();
+            enemy.setTranslation(new double[] {in.getDouble(), in.getDouble(), in.getDouble()});
+            enemy.getRotation()[1] = in.getDouble();
+            enemy.setScale(in.getDouble());
+            terrain.addEnemy(enemy);
+        }
+        return terrain;
+    }
+
+    /**
+     * Write Terrain to a binary level file. Altitudes are stored as floats
+     * when that loses nothing, as doubles otherwise.
+     * 
+     * @param terrain
+     * @param file
+     * @throws IOException
+     */
+    public static void saveBinary(Terrain terrain, File file) throws IOException {
+        Dimension size = terrain.size();
+        boolean floats = true;
+        for (int x = 0; x < size.width && floats; x++) {
+            for (int z = 0; z < size.height; z++) {
+                double h = terrain.getGridAltitude(x, z);
+                if ((float) h != h) {
+                    floats = false;
+                    break;
+                }
+            }
+        }
+        int altitudeBytes = floats ? Float.BYTES : Double.BYTES;
+
+        int length = HEADER_SIZE + size.width * size.height * altitudeBytes
+                + terrain.trees().size() * 2 * Double.BYTES
+                + terrain.enemies().size() * 5 * Double.BYTES;
+        for (Road r : terrain.roads()) {
+            length += 2 * Double.BYTES + (3 * r.size() + 1) * 2 * Double.BYTES;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(size.width);
+        out.putInt(size.height);
+        float[] sunlight = terrain.getSunlight();
+        out.putFloat(sunlight[0]);
+        out.putFloat(sunlight[1]);
+        out.putFloat(sunlight[2]);
+        out.putInt(altitudeBytes);
+        out.putInt(terrain.trees().size());
+        out.putInt(terrain.roads().size());
+        out.putInt(terrain.enemies().size());
+        out.putInt(0);
+
+        for (int z = 0; z < size.height; z++) {
+            for (int x = 0; x < size.width; x++) {
+                double h = terrain.getGridAltitude(x, z);
+                if (floats) {
+                    out.putFloat((float) h);
+                } else {
+                    out.putDouble(h);
+                }
+            }
+        }
+
+        for (Tree t : terrain.trees()) {
+            double[] position = t.getPosition();
+            out.putDouble(position[0]);
+            out.putDouble(position[2]);
+        }
+
+        for (Road r : terrain.roads()) {
+            int n = 3 * r.size() + 1;
+            out.putDouble(r.width());
+            out.putInt(2 * n);
+            out.putInt(0);
+            for (int i = 0; i < n; i++) {
+                double[] p = r.controlPoint(i);
+                out.putDouble(p[0]);
+                out.putDouble(p[1]);
+            }
+        }
+
+        for (Enemy e : terrain.enemies()) {
+            double[] t = e.getTranslation();
+            out.putDouble(t[0]);
+            out.putDouble(t[1]);
+            out.putDouble(t[2]);
+            out.putDouble(e.getRotation()[1]);
+            out.putDouble(e.getScale());
+        }
+
+        out.flip();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
     /**
      * For testing.
      * 
+     * With --binary, convert each JSON level file to a binary one next to it
+     * (level.json becomes level.bin).
+     * 
      * @param args
      * @throws IOException 
      */
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--binary")) {
+            for (int i = 1; i < args.length; i++) {
+                File in = new File(args[i]);
+                String name = in.getName().replaceFirst("\\.json$", "") + ".bin";
+                File out = new File(in.getParentFile(), name);
+                LevelIO.saveBinary(LevelIO.load(in), out);
+                System.out.println(in + " -> " + out);
+            }
+            return;
+        }
         Terrain terrain = LevelIO.load(new File(args[0]));
         LevelIO.save(terrain, new File(args[1]));
     }
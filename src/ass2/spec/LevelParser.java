@@ -0,0 +1,604 @@
+package ass2.spec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Pull parser for JSON level files.
+ *
+ * Reads the file once through a small buffer and parses numbers straight into the terrain,
+ * without building a JSONObject or boxing any value. Trees, roads and enemies are added as
+ * they are read when the altitudes are already known, otherwise they are kept in primitive
+ * arrays until the end of the file. Accepts the same trailing commas as org.json.
+ */
+class LevelParser {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private Reader in;
+    private char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+
+    // the last key read, reused for every key
+    private char[] key = new char[16];
+    private int keyLength;
+
+    // text of the last number, only turned into a String when the fast path cannot parse it
+    private char[] number = new char[32];
+    private int numberLength;
+
+    private int width = -1;
+    private int depth = -1;
+    private float[] sunlight;
+    private Terrain terrain;
+
+    // altitudes read before the size was known
+    private DoubleList altitudes;
+    private boolean altitudesDone;
+
+    // objects read before the altitudes, added at the end
+    private DoubleList trees = new DoubleList();
+    private DoubleList enemies = new DoubleList();
+    private DoubleList roadWidths = new DoubleList();
+    private DoubleList roadSpines = new DoubleList();
+    private DoubleList roadLengths = new DoubleList();
+
+    // spine of the road being read
+    private DoubleList spine = new DoubleList();
+
+    LevelParser(Reader in) {
+        this.in = in;
+    }
+
+    Terrain parse() throws IOException {
+        expect('{');
+        if (!consume('}')) {
+            do {
+                if (peek() == '}') {
+                    // trailing comma
+                    break;
+                }
+                readKey();
+                expect(':');
+                readTopLevelValue();
+            } while (consume(','));
+            expect('}');
+        }
+
+        if (width < 0 || depth < 0) {
+            throw new ParseException("level has no width or depth");
+        }
+        if (sunlight == null) {
+            throw new ParseException("level has no sunlight");
+        }
+        createTerrain();
+        if (!altitudesDone) {
+            throw new ParseException("level has no altitude");
+        }
+        if (altitudes != null) {
+            for (int i = 0; i < altitudes.size(); i++) {
+                setAltitude(i, altitudes.get(i));
+            }
+            altitudes = null;
+        }
+        terrain.setSunlightDir(sunlight[0], sunlight[1], sunlight[2]);
+
+        for (int i = 0; i < trees.size(); i += 2) {
+            terrain.addTree(trees.get(i), trees.get(i + 1));
+        }
+        int start = 0;
+        for (int i = 0; i < roadWidths.size(); i++) {
+            int length = (int) roadLengths.get(i);
+            terrain.addRoad(roadWidths.get(i), roadSpines.toArray(start, length));
+            start += length;
+        }
+        for (int i = 0; i < enemies.size(); i += 4) {
+            terrain.addEnemy(enemies.get(i), enemies.get(i + 1), enemies.get(i + 2), enemies.get(i + 3));
+        }
+        return terrain;
+    }
+
+    private void readTopLevelValue() throws IOException {
+        if (isKey("width")) {
+            width = (int) readNumber();
+        } else if (isKey("depth")) {
+            depth = (int) readNumber();
+        } else if (isKey("sunlight")) {
+            sunlight = new float[3];
+            int i = 0;
+            expect('[');
+            if (!consume(']')) {
+                do {
+                    if (peek() == ']') {
+                        break;
+                    }
+                    double d = readNumber();
+                    if (i < 3) {
+                        sunlight[i] = (float) d;
+                    }
+                    i++;
+                } while (consume(','));
+                expect(']');
+            }
+            if (i < 3) {
+                throw new ParseException("sunlight needs 3 values");
+            }
+        } else if (isKey("altitude")) {
+            readAltitudes();
+        } else if (isKey("trees")) {
+            readArrayOfObjects(Kind.TREE);
+        } else if (isKey("roads")) {
+            readArrayOfObjects(Kind.ROAD);
+        } else if (isKey("enemies")) {
+            readArrayOfObjects(Kind.ENEMY);
+        } else {
+            skipValue();
+        }
+    }
+
+    private void readAltitudes() throws IOException {
+        boolean direct = width >= 0 && depth >= 0;
+        if (direct) {
+            createTerrain();
+        } else {
+            altitudes = new DoubleList();
+        }
+
+        int i = 0;
+        expect('[');
+        if (!consume(']')) {
+            do {
+                if (peek() == ']') {
+                    break;
+                }
+                double h = readNumber();
+                if (direct) {
+                    setAltitude(i, h);
+                } else {
+                    altitudes.add(h);
+                }
+                i++;
+            } while (consume(','));
+            expect(']');
+        }
+        altitudesDone = true;
+    }
+
+    private enum Kind {
+        TREE, ROAD, ENEMY
+    }
+
+    private void readArrayOfObjects(Kind kind) throws IOException {
+        expect('[');
+        if (consume(']')) {
+            return;
+        }
+        do {
+            if (peek() == ']') {
+                break;
+            }
+            switch (kind) {
+                case TREE:
+                    readTree();
+                    break;
+                case ROAD:
+                    readRoad();
+                    break;
+                default:
+                    readEnemy();
+                    break;
+            }
+        } while (consume(','));
+        expect(']');
+    }
+
+    private void readTree() throws IOException {
+        double x = Double.NaN;
+        double z = Double.NaN;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                if (peek() == '}') {
+                    break;
+                }
+                readKey();
+                expect(':');
+                if (isKey("x")) {
+                    x = readNumber();
+                } else if (isKey("z")) {
+                    z = readNumber();
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        require(x, "x", "tree");
+        require(z, "z", "tree");
+
+        if (altitudesReady()) {
+            terrain.addTree(x, z);
+        } else {
+            trees.add(x);
+            trees.add(z);
+        }
+    }
+
+    private void readRoad() throws IOException {
+        double w = Double.NaN;
+        boolean hasSpine = false;
+        spine.clear();
+        expect('{');
+        if (!consume('}')) {
+            do {
+                if (peek() == '}') {
+                    break;
+                }
+                readKey();
+                expect(':');
+                if (isKey("width")) {
+                    w = readNumber();
+                } else if (isKey("spine")) {
+                    hasSpine = true;
+                    spine.clear();
+                    expect('[');
+                    if (!consume(']')) {
+                        do {
+                            if (peek() == ']') {
+                                break;
+                            }
+                            spine.add(readNumber());
+                        } while (consume(','));
+                        expect(']');
+                    }
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        require(w, "width", "road");
+        if (!hasSpine) {
+            throw new ParseException("road has no spine");
+        }
+
+        if (altitudesReady()) {
+            terrain.addRoad(w, spine.toArray(0, spine.size()));
+        } else {
+            roadWidths.add(w);
+            roadLengths.add(spine.size());
+            for (int i = 0; i < spine.size(); i++) {
+                roadSpines.add(spine.get(i));
+            }
+        }
+    }
+
+    private void readEnemy() throws IOException {
+        double x = Double.NaN;
+        double z = Double.NaN;
+        double rotation = 0;
+        double scale = 1;
+        expect('{');
+        if (!consume('}')) {
+            do {
+                if (peek() == '}') {
+                    break;
+                }
+                readKey();
+                expect(':');
+                if (isKey("x")) {
+                    x = readNumber();
+                } else if (isKey("z")) {
+                    z = readNumber();
+                } else if (isKey("rotation")) {
+                    rotation = readNumber();
+                } else if (isKey("scale")) {
+                    scale = readNumber();
+                } else {
+                    skipValue();
+                }
+            } while (consume(','));
+            expect('}');
+        }
+        require(x, "x", "enemy");
+        require(z, "z", "enemy");
+
+        if (altitudesReady()) {
+            terrain.addEnemy(x, z, rotation, scale);
+        } else {
+            enemies.add(x);
+            enemies.add(z);
+            enemies.add(rotation);
+            enemies.add(scale);
+        }
+    }
+
+    // objects can only be placed once all altitudes are in the terrain
+    private boolean altitudesReady() {
+        return altitudesDone && altitudes == null;
+    }
+
+    private void createTerrain() {
+        if (terrain == null) {
+            terrain = new Terrain(width, depth);
+        }
+    }
+
+    private void setAltitude(int i, double h) {
+        terrain.setGridAltitude(i % width, i / width, h);
+    }
+
+    private static void require(double value, String name, String object) {
+        if (Double.isNaN(value)) {
+            throw new ParseException(object + " has no " + name);
+        }
+    }
+
+    // ---- tokens ----
+
+    private void readKey() throws IOException {
+        expect('"');
+        keyLength = 0;
+        char c;
+        while ((c = next()) != '"') {
+            if (c == '\\') {
+                c = next();
+            }
+            if (keyLength == key.length) {
+                key = Arrays.copyOf(key, 2 * key.length);
+            }
+            key[keyLength++] = c;
+        }
+    }
+
+    private boolean isKey(String s) {
+        if (s.length() != keyLength) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (key[i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a number, or a string holding a number like org.json does.
+     * Parsed without allocation when the result is exact, otherwise by Double.parseDouble
+     * so the result is always the correctly rounded one.
+     */
+    private double readNumber() throws IOException {
+        boolean quoted = consume('"');
+        skipWhitespace();
+        numberLength = 0;
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean negative = false;
+        boolean exact = true;
+
+        char c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            appendNumber(next());
+        }
+        boolean any = false;
+        while (isDigit(peek())) {
+            char d = next();
+            appendNumber(d);
+            any = true;
+            if (digits < 18) {
+                mantissa = 10 * mantissa + (d - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+                exact &= d == '0';
+            }
+        }
+        if (peek() == '.') {
+            appendNumber(next());
+            while (isDigit(peek())) {
+                char d = next();
+                appendNumber(d);
+                any = true;
+                if (digits < 18) {
+                    mantissa = 10 * mantissa + (d - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else {
+                    exact &= d == '0';
+                }
+            }
+        }
+        if (!any) {
+            throw new ParseException("number expected at '" + peek() + "'");
+        }
+        if (peek() == 'e' || peek() == 'E') {
+            appendNumber(next());
+            boolean negativeExp = false;
+            if (peek() == '-' || peek() == '+') {
+                negativeExp = peek() == '-';
+                appendNumber(next());
+            }
+            int e = 0;
+            if (!isDigit(peek())) {
+                throw new ParseException("bad exponent");
+            }
+            while (isDigit(peek())) {
+                char d = next();
+                appendNumber(d);
+                e = Math.min(10 * e + (d - '0'), 100000);
+            }
+            exponent += negativeExp ? -e : e;
+        }
+        if (quoted) {
+            expect('"');
+        }
+
+        // both the mantissa and the power of ten are exact doubles,
+        // so one multiplication or division rounds correctly
+        if (exact && mantissa < (1L << 53)) {
+            double value;
+            if (mantissa == 0) {
+                value = 0;
+            } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+                value = mantissa * POWERS_OF_TEN[exponent];
+            } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value = mantissa / POWERS_OF_TEN[-exponent];
+            } else {
+                return Double.parseDouble(new String(number, 0, numberLength));
+            }
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(number, 0, numberLength));
+    }
+
+    private void appendNumber(char c) {
+        if (numberLength == number.length) {
+            number = Arrays.copyOf(number, 2 * number.length);
+        }
+        number[numberLength++] = c;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private void skipValue() throws IOException {
+        char c = peek();
+        if (c == '{' || c == '[') {
+            char close = c == '{' ? '}' : ']';
+            next();
+            if (consume(close)) {
+                return;
+            }
+            do {
+                if (peek() == close) {
+                    break;
+                }
+                if (c == '{') {
+                    readKey();
+                    expect(':');
+                }
+                skipValue();
+            } while (consume(','));
+            expect(close);
+        } else if (c == '"') {
+            next();
+            char s;
+            while ((s = next()) != '"') {
+                if (s == '\\') {
+                    next();
+                }
+            }
+        } else {
+            // number, true, false or null
+            while (pos < limit || fill()) {
+                c = buffer[pos];
+                if (c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+                    break;
+                }
+                pos++;
+            }
+        }
+    }
+
+    private void expect(char c) throws IOException {
+        if (!consume(c)) {
+            throw new ParseException("expected '" + c + "' but found '" + peek() + "'");
+        }
+    }
+
+    // skip whitespace, then take c if it is next
+    private boolean consume(char c) throws IOException {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    // the next character that is not whitespace, without taking it
+    private char peek() throws IOException {
+        skipWhitespace();
+        if (pos == limit && !fill()) {
+            throw new ParseException("unexpected end of file");
+        }
+        return buffer[pos];
+    }
+
+    private char next() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new ParseException("unexpected end of file");
+        }
+        return buffer[pos++];
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (pos < limit || fill()) {
+            if (!Character.isWhitespace(buffer[pos])) {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    static public class ParseException extends RuntimeException {
+
+        public ParseException(String message) {
+            super(message);
+        }
+
+    }
+
+    // growable array of doubles
+    private static class DoubleList {
+
+        private double[] values = new double[16];
+        private int size;
+
+        void add(double d) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            values[size++] = d;
+        }
+
+        double get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        double[] toArray(int from, int length) {
+            return Arrays.copyOfRange(values, from, from + length);
+        }
+    }
+}
@@ -115,6 +115,41 @@ public class MathUtils {
         return mat;
     }
 
+    // same matrix as glTranslated
+    public static double[][] translation(double x, double y, double z) {
+        double[][] mat = identity(4);
+        mat[0][3] = x;
+        mat[1][3] = y;
+        mat[2][3] = z;
+        return mat;
+    }
+
+    // same matrix as glRotated about the x (axis 0), y (axis 1) or z (axis 2) axis
+    public static double[][] rotation(double degrees, int axis) {
+        double[][] mat = identity(4);
+        double c = Math.cos(Math.toRadians(degrees));
+        double s = Math.sin(Math.toRadians(degrees));
+        int i = (axis + 1) % 3;
+        int j = (axis + 2) % 3;
+        mat[i][i] = c;
+        mat[i][j] = -s;
+        mat[j][i] = s;
+        mat[j][j] = c;
+        return mat;
+    }
+
+    // same matrix as gluPerspective
+    public static double[][] perspective(double fovy, double aspect, double near, double far) {
+        double f = 1 / Math.tan(Math.toRadians(fovy) / 2);
+        double[][] mat = new double[4][4];
+        mat[0][0] = f / aspect;
+        mat[1][1] = f;
+        mat[2][2] = (far + near) / (near - far);
+        mat[2][3] = 2 * far * near / (near - far);
+        mat[3][2] = -1;
+        return mat;
+    }
+
     public static double clamp(double val, double min, double max) {
         return Math.max(min, Math.min(max, val));
     }
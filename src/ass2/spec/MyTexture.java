@@ -95,6 +95,7 @@ public class MyTexture {
 	public void release(GL2 gl) {
 		if (textureID[0] > 0) {
 			gl.glDeleteTextures(1, textureID, 0);
+			textureID[0] = 0;
 		}
 	}
 }
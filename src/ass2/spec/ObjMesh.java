@@ -0,0 +1,270 @@
+package ass2.spec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * An indexed triangle mesh loaded from an OBJ file.
+ *
+ * Every vertex has a position, a texture coordinate and a normal, missing ones are 0.
+ * A parsed mesh can be kept in a small binary cache file that loads without parsing.
+ * The cache is only trusted if its own checksum matches and every index names a vertex.
+ */
+public class ObjMesh {
+
+    // binary cache, all values little endian:
+    //   magic "A2OB", int version, int length and int CRC32 of the OBJ file,
+    //   int CRC32 of the rest of the file,
+    //   int vertices, int indexes, double radius,
+    //   float[3 * vertices] positions, float[2 * vertices] texture coordinates,
+    //   float[3 * vertices] normals, int[indexes] indexes
+    private static final byte[] MAGIC = "A2OB".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 36;
+    // where the part covered by the payload checksum starts
+    private static final int PAYLOAD_START = 20;
+    // cache directory of the current user, used unless another one is given
+    private static final File CACHE_DIR = new File(System.getProperty("user.home"), ".ass2" + File.separator + "cache");
+
+    private float[] myPositions;
+    private float[] myTexCoords;
+    private float[] myNormals;
+    private int[] myIndexes;
+    // distance of the furthest position from the origin
+    private double myRadius;
+
+    public ObjMesh(float[] positions, float[] texCoords, float[] normals, int[] indexes, double radius) {
+        myPositions = positions;
+        myTexCoords = texCoords;
+        myNormals = normals;
+        myIndexes = indexes;
+        myRadius = radius;
+    }
+
+    /**
+     * Parse the OBJ file held by a buffer, from its position to its limit.
+     *
+     * @param data
+     * @return
+     */
+    public static ObjMesh parse(ByteBuffer data) {
+        return new ObjParser(data).parse();
+    }
+
+    /**
+     * Parse an OBJ file through a memory mapping.
+     *
+     * @param file
+     * @return
+     * @throws FileNotFoundException
+     */
+    public static ObjMesh load(File file) throws FileNotFoundException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Load an OBJ file from the class path, through a cache file in ~/.ass2/cache.
+     *
+     * @param resource path of the OBJ file on the class path
+     * @return
+     */
+    public static ObjMesh loadResource(String resource) {
+        return loadResource(resource, CACHE_DIR);
+    }
+
+    /**
+     * Load an OBJ file from the class path, through a cache file in a directory.
+     * The cache is used when it was made from the same OBJ file and is intact,
+     * otherwise the OBJ file is parsed and the cache written again.
+     *
+     * @param resource path of the OBJ file on the class path
+     * @param cacheDir created if missing
+     * @return
+     */
+    public static ObjMesh loadResource(String resource, File cacheDir) {
+        byte[] obj = readResource(resource);
+        CRC32 crc = new CRC32();
+        crc.update(obj, 0, obj.length);
+        int checksum = (int) crc.getValue();
+
+        String name = new File(resource).getName().replaceFirst("\\.obj$", "") + ".objc";
+        File cache = new File(cacheDir, name);
+        ObjMesh mesh = readCache(cache, obj.length, checksum);
+        if (mesh == null) {
+            mesh = parse(ByteBuffer.wrap(obj));
+            try {
+                mesh.writeCache(cache, obj.length, checksum);
+            } catch (IOException e) {
+                // only slower next time
+                e.printStackTrace();
+            }
+        }
+        return mesh;
+    }
+
+    private static byte[] readResource(String resource) {
+        try (InputStream in = ObjMesh.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new FileNotFoundException(resource);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read a cache file, null if there is none, it was made from another OBJ file
+     * or it is damaged.
+     */
+    static ObjMesh readCache(File cache, int length, int checksum) {
+        if (!cache.isFile() || cache.length() < HEADER_SIZE) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.getInt() != VERSION
+                    || in.getInt() != length || in.getInt() != checksum) {
+                return null;
+            }
+            int payloadChecksum = in.getInt();
+            if (payloadChecksum(in) != payloadChecksum) {
+                return null;
+            }
+            in.position(PAYLOAD_START);
+            int vertices = in.getInt();
+            int indexes = in.getInt();
+            double radius = in.getDouble();
+            if (vertices < 0 || indexes < 0 || indexes % 3 != 0
+                    || in.capacity() != HEADER_SIZE + (8L * vertices + indexes) * 4) {
+                return null;
+            }
+
+            float[] positions = new float[3 * vertices];
+            float[] texCoords = new float[2 * vertices];
+            float[] normals = new float[3 * vertices];
+            int[] indexArray = new int[indexes];
+            in.asFloatBuffer().get(positions);
+            in.position(in.position() + positions.length * Float.BYTES);
+            in.asFloatBuffer().get(texCoords);
+            in.position(in.position() + texCoords.length * Float.BYTES);
+            in.asFloatBuffer().get(normals);
+            in.position(in.position() + normals.length * Float.BYTES);
+            in.asIntBuffer().get(indexArray);
+            for (int index : indexArray) {
+                // the indexes go straight to glDrawElements
+                if (index < 0 || index >= vertices) {
+                    return null;
+                }
+            }
+            return new ObjMesh(positions, texCoords, normals, indexArray, radius);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // CRC32 from PAYLOAD_START to the end of a cache file
+    private static int payloadChecksum(ByteBuffer file) {
+        ByteBuffer in = file.duplicate();
+        in.position(PAYLOAD_START);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        while (in.hasRemaining()) {
+            int n = Math.min(chunk.length, in.remaining());
+            in.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    void writeCache(File cache, int length, int checksum) throws IOException {
+        int vertices = vertexCount();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + (8 * vertices + myIndexes.length) * 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(length);
+        out.putInt(checksum);
+        out.putInt(0);
+        out.putInt(vertices);
+        out.putInt(myIndexes.length);
+        out.putDouble(myRadius);
+        out.asFloatBuffer().put(myPositions).put(myTexCoords).put(myNormals);
+        out.position(out.position() + 8 * vertices * Float.BYTES);
+        out.asIntBuffer().put(myIndexes);
+        out.putInt(PAYLOAD_START - 4, payloadChecksum(out));
+        out.position(0);
+
+        // written to a new file of our own, then renamed over the cache in one step,
+        // so a reader never sees half a file
+        Path dir = cache.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, cache.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+            Files.move(temp, cache.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public int vertexCount() {
+        return myPositions.length / 3;
+    }
+
+    public float[] getPositions() {
+        return myPositions;
+    }
+
+    public float[] getTexCoords() {
+        return myTexCoords;
+    }
+
+    public float[] getNormals() {
+        return myNormals;
+    }
+
+    // three per triangle
+    public int[] getIndexes() {
+        return myIndexes;
+    }
+
+    public double getRadius() {
+        return myRadius;
+    }
+}
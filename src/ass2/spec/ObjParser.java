@@ -0,0 +1,386 @@
+package ass2.spec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parser for Wavefront OBJ files.
+ *
+ * Works on the raw bytes of the file and reads numbers straight into primitive arrays,
+ * so nothing is allocated per line or per number. Corners of the faces that share the
+ * same position, texture coordinate and normal become one vertex of an indexed mesh.
+ * Polygons with more than three corners are split into a fan of triangles. Only v, vt,
+ * vn and f lines are used, everything else is skipped.
+ */
+class ObjParser {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private ByteBuffer in;
+    private int pos;
+    private int limit;
+
+    // values of the v, vt and vn lines
+    private FloatList v = new FloatList();
+    private FloatList vt = new FloatList();
+    private FloatList vn = new FloatList();
+    private double radius;
+
+    // the mesh, one entry per distinct v/vt/vn triple
+    private FloatList positions = new FloatList();
+    private FloatList texCoords = new FloatList();
+    private FloatList normals = new FloatList();
+    private IntList indexes = new IntList();
+
+    // the triple of each vertex and a hash table from triples to vertices
+    private IntList keys = new IntList();
+    private int[] table = new int[1024];
+    private int vertexCount;
+
+    // vertices of the current face
+    private int[] face = new int[16];
+
+    // text of the last number, only turned into a String when the fast path cannot parse it
+    private byte[] number = new byte[32];
+
+    ObjParser(ByteBuffer in) {
+        this.in = in;
+        pos = in.position();
+        limit = in.limit();
+        Arrays.fill(table, -1);
+    }
+
+    ObjMesh parse() {
+        while (pos < limit) {
+            skipSpaces();
+            if (pos >= limit) {
+                break;
+            }
+            byte c = in.get(pos);
+            byte d = pos + 1 < limit ? in.get(pos + 1) : (byte) '\n';
+            if (c == 'v' && isSpace(d)) {
+                pos++;
+                double x = readNumber();
+                double y = readNumber();
+                double z = readNumber();
+                v.add((float) x);
+                v.add((float) y);
+                v.add((float) z);
+                radius = Math.max(radius, Math.sqrt(x * x + y * y + z * z));
+            } else if (c == 'v' && d == 't') {
+                pos += 2;
+                vt.add((float) readNumber());
+                // the second coordinate is optional
+                skipSpaces();
+                vt.add(pos < limit && !isLineEnd(in.get(pos)) ? (float) readNumber() : 0);
+            } else if (c == 'v' && d == 'n') {
+                pos += 2;
+                vn.add((float) readNumber());
+                vn.add((float) readNumber());
+                vn.add((float) readNumber());
+            } else if (c == 'f' && isSpace(d)) {
+                pos++;
+                readFace();
+            }
+            skipLine();
+        }
+
+        return new ObjMesh(positions.toArray(), texCoords.toArray(), normals.toArray(),
+                indexes.toArray(), radius);
+    }
+
+    private void readFace() {
+        int corners = 0;
+        skipSpaces();
+        while (pos < limit && !isLineEnd(in.get(pos))) {
+            int p = readIndex(v.size() / 3);
+            int t = -1;
+            int n = -1;
+            if (pos < limit && in.get(pos) == '/') {
+                pos++;
+                if (pos < limit && in.get(pos) != '/') {
+                    t = readIndex(vt.size() / 2);
+                }
+                if (pos < limit && in.get(pos) == '/') {
+                    pos++;
+                    n = readIndex(vn.size() / 3);
+                }
+            }
+            if (corners == face.length) {
+                face = Arrays.copyOf(face, 2 * face.length);
+            }
+            face[corners++] = vertex(p, t, n);
+            skipSpaces();
+        }
+        if (corners < 3) {
+            throw new ParseException("face with " + corners + " corners");
+        }
+
+        // a fan around the first corner
+        for (int k = 1; k < corners - 1; k++) {
+            indexes.add(face[0]);
+            indexes.add(face[k]);
+            indexes.add(face[k + 1]);
+        }
+    }
+
+    // the vertex for a triple of indexes, created when it is new
+    private int vertex(int p, int t, int n) {
+        int mask = table.length - 1;
+        int slot = hash(p, t, n) & mask;
+        while (table[slot] >= 0) {
+            int i = table[slot];
+            if (keys.get(3 * i) == p && keys.get(3 * i + 1) == t && keys.get(3 * i + 2) == n) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int i = vertexCount++;
+        table[slot] = i;
+        keys.add(p);
+        keys.add(t);
+        keys.add(n);
+        positions.add(v.get(3 * p));
+        positions.add(v.get(3 * p + 1));
+        positions.add(v.get(3 * p + 2));
+        texCoords.add(t < 0 ? 0 : vt.get(2 * t));
+        texCoords.add(t < 0 ? 0 : vt.get(2 * t + 1));
+        normals.add(n < 0 ? 0 : vn.get(3 * n));
+        normals.add(n < 0 ? 0 : vn.get(3 * n + 1));
+        normals.add(n < 0 ? 0 : vn.get(3 * n + 2));
+
+        // keep the table at most half full
+        if (2 * vertexCount > table.length) {
+            rehash();
+        }
+        return i;
+    }
+
+    private void rehash() {
+        table = new int[2 * table.length];
+        Arrays.fill(table, -1);
+        int mask = table.length - 1;
+        for (int i = 0; i < vertexCount; i++) {
+            int slot = hash(keys.get(3 * i), keys.get(3 * i + 1), keys.get(3 * i + 2)) & mask;
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i;
+        }
+    }
+
+    private static int hash(int p, int t, int n) {
+        int h = p * 0x9e3779b1 + t * 0x85ebca6b + n * 0xc2b2ae35;
+        return h ^ (h >>> 15);
+    }
+
+    /**
+     * Read a 1 based index, negative ones count back from the last value read.
+     *
+     * @param count number of values read so far
+     * @return 0 based index
+     */
+    private int readIndex(int count) {
+        boolean negative = pos < limit && in.get(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos >= limit || !isDigit(in.get(pos))) {
+            throw new ParseException("index expected");
+        }
+        int index = 0;
+        while (pos < limit && isDigit(in.get(pos))) {
+            index = 10 * index + (in.get(pos++) - '0');
+        }
+        int i = negative ? count - index : index - 1;
+        if (i < 0 || i >= count) {
+            throw new ParseException("index out of range: " + (negative ? "-" : "") + index);
+        }
+        return i;
+    }
+
+    /**
+     * Read a number. Parsed without allocation when the result is exact, otherwise by
+     * Double.parseDouble so the result is always the correctly rounded one.
+     */
+    private double readNumber() {
+        skipSpaces();
+        int start = pos;
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean negative = false;
+        boolean exact = true;
+
+        byte c = pos < limit ? in.get(pos) : 0;
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+        boolean any = false;
+        while (pos < limit && isDigit(in.get(pos))) {
+            int d = in.get(pos++) - '0';
+            any = true;
+            if (digits < 18) {
+                mantissa = 10 * mantissa + d;
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+                exact &= d == 0;
+            }
+        }
+        if (pos < limit && in.get(pos) == '.') {
+            pos++;
+            while (pos < limit && isDigit(in.get(pos))) {
+                int d = in.get(pos++) - '0';
+                any = true;
+                if (digits < 18) {
+                    mantissa = 10 * mantissa + d;
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else {
+                    exact &= d == 0;
+                }
+            }
+        }
+        if (!any) {
+            throw new ParseException("number expected");
+        }
+        if (pos < limit && (in.get(pos) == 'e' || in.get(pos) == 'E')) {
+            pos++;
+            boolean negativeExp = false;
+            if (pos < limit && (in.get(pos) == '-' || in.get(pos) == '+')) {
+                negativeExp = in.get(pos) == '-';
+                pos++;
+            }
+            if (pos >= limit || !isDigit(in.get(pos))) {
+                throw new ParseException("bad exponent");
+            }
+            int e = 0;
+            while (pos < limit && isDigit(in.get(pos))) {
+                e = Math.min(10 * e + (in.get(pos++) - '0'), 100000);
+            }
+            exponent += negativeExp ? -e : e;
+        }
+
+        // both the mantissa and the power of ten are exact doubles,
+        // so one multiplication or division rounds correctly
+        if (exact && mantissa < (1L << 53)) {
+            double value;
+            if (mantissa == 0) {
+                value = 0;
+            } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+                value = mantissa * POWERS_OF_TEN[exponent];
+            } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+                value = mantissa / POWERS_OF_TEN[-exponent];
+            } else {
+                return slowNumber(start);
+            }
+            return negative ? -value : value;
+        }
+        return slowNumber(start);
+    }
+
+    private double slowNumber(int start) {
+        int length = pos - start;
+        if (number.length < length) {
+            number = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            number[i] = in.get(start + i);
+        }
+        return Double.parseDouble(new String(number, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    private void skipSpaces() {
+        while (pos < limit && (in.get(pos) == ' ' || in.get(pos) == '\t')) {
+            pos++;
+        }
+    }
+
+    // skip the rest of the line, including the line break
+    private void skipLine() {
+        while (pos < limit && in.get(pos) != '\n') {
+            pos++;
+        }
+        pos++;
+    }
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isLineEnd(byte c) {
+        return c == '\n' || c == '\r' || c == '#';
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static public class ParseException extends RuntimeException {
+
+        public ParseException(String message) {
+            super(message);
+        }
+
+    }
+
+    // growable array of floats
+    private static class FloatList {
+
+        private float[] values = new float[256];
+        private int size;
+
+        void add(float f) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            values[size++] = f;
+        }
+
+        float get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // growable array of ints
+    private static class IntList {
+
+        private int[] values = new int[256];
+        private int size;
+
+        void add(int i) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * values.length);
+            }
+            values[size++] = i;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
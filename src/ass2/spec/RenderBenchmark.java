@@ -0,0 +1,200 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLDrawableFactory;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+import com.jogamp.opengl.GLProfile;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Draws levels offscreen with the hero following a fixed path, and writes frame time
+ * percentiles, triangles and draw calls per frame to a JSON file, so runs on different
+ * builds or machines can be compared.
+ *
+ * Frames are timed with the same options as the game, waiting for the GPU at the end of
+ * each. Triangles and draw calls are counted in a second pass along the same path, as
+ * counting slows drawing down. Still needs an X display for the GL context, on a
+ * machine without one run it under xvfb-run.
+ *
+ * Usage: Game level.json... --bench[=frames] [--bench-out=file] [--bench-size=WxH] [game options]
+ */
+public class RenderBenchmark {
+
+    private static final int FRAMES = 600;
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final String OUT_FILE = "bench.json";
+    // frames drawn before timing, at the start of the path
+    private static final int WARMUP = 60;
+    // frames along the path whose draw calls are counted
+    private static final int COUNTED = 100;
+
+    /**
+     * Benchmark each level in turn.
+     *
+     * @param levels
+     * @param options command line options starting with --, passed on to the game
+     * @throws IOException
+     */
+    public static void run(List<File> levels, List<String> options) throws IOException {
+        int frames = FRAMES;
+        int width = WIDTH;
+        int height = HEIGHT;
+        File out = new File(OUT_FILE);
+        for (String option : options) {
+            if (option.startsWith("--bench=")) {
+                frames = Math.max(1, Integer.parseInt(option.substring("--bench=".length())));
+            } else if (option.startsWith("--bench-out=")) {
+                out = new File(option.substring("--bench-out=".length()));
+            } else if (option.startsWith("--bench-size=")) {
+                String[] size = option.substring("--bench-size=".length()).split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            }
+        }
+
+        GLProfile glp = GLProfile.getDefault();
+        GLCapabilities caps = new GLCapabilities(glp);
+        caps.setOnscreen(false);
+        GLDrawableFactory factory = GLDrawableFactory.getFactory(glp);
+
+        JSONArray results = new JSONArray();
+        for (File level : levels) {
+            GLOffscreenAutoDrawable drawable = factory.createOffscreenAutoDrawable(null, caps, null, width, height);
+            try {
+                JSONObject result = run(drawable, level, options, frames);
+                result.put("width", width);
+                result.put("height", height);
+                results.put(result);
+            } finally {
+                drawable.destroy();
+            }
+        }
+
+        try (PrintWriter writer = new PrintWriter(out, "UTF-8")) {
+            writer.println(results.toString(2));
+        }
+        System.out.println("benchmark written to " + out);
+    }
+
+    private static JSONObject run(GLOffscreenAutoDrawable drawable, File level, List<String> options,
+                                  int frames) throws FileNotFoundException {
+        Terrain terrain = LevelIO.load(level);
+        Game game = new Game(terrain);
+        game.configure(options);
+        game.setBenchmark(true);
+        drawable.addGLEventListener(game);
+
+        // the first display() also runs init(), which builds the roads the path follows
+        drawable.display();
+        CameraPath path = new CameraPath(terrain);
+        Hero hero = game.getHero();
+
+        for (int i = 0; i < WARMUP; i++) {
+            place(hero, path.pose(0));
+            drawable.display();
+        }
+
+        FrameTimer timer = game.getTimer();
+        timer.setEnabled(true);
+        double[] times = new double[frames];
+        for (int i = 0; i < frames; i++) {
+            place(hero, path.pose((double) i / frames));
+            long start = System.nanoTime();
+            drawable.display();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        timer.setEnabled(false);
+
+        // count through a counting pipeline, then put the real GL back
+        int counted = Math.min(COUNTED, frames);
+        long[] triangles = new long[counted];
+        long[] drawCalls = new long[counted];
+        DrawCounter counter = new DrawCounter(drawable.getGL().getGL2());
+        GL gl = drawable.setGL(counter);
+        try {
+            for (int i = 0; i < counted; i++) {
+                place(hero, path.pose((double) i / counted));
+                counter.reset();
+                drawable.display();
+                triangles[i] = counter.triangles();
+                drawCalls[i] = counter.drawCalls();
+            }
+        } finally {
+            drawable.setGL(gl);
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("level", level.getPath());
+        result.put("frames", frames);
+        result.put("path", path.onRoads() ? "roads" : "orbit");
+        result.put("frame_ms", frameTimes(times));
+        result.put("triangles", counts(triangles));
+        result.put("draw_calls", counts(drawCalls));
+        result.put("stages", stages(timer));
+
+        System.out.printf(Locale.ROOT, "%s: p50 %.2f ms, p99 %.2f ms, %.0f triangles, %.0f draw calls%n",
+                level, percentile(times, 50), percentile(times, 99),
+                result.getJSONObject("triangles").getDouble("mean"),
+                result.getJSONObject("draw_calls").getDouble("mean"));
+        return result;
+    }
+
+    private static void place(Hero hero, double[] pose) {
+        hero.place(pose[0], pose[1], pose[2]);
+    }
+
+    private static JSONObject frameTimes(double[] times) {
+        JSONObject json = new JSONObject();
+        json.put("p50", percentile(times, 50));
+        json.put("p95", percentile(times, 95));
+        json.put("p99", percentile(times, 99));
+        json.put("mean", Arrays.stream(times).average().orElse(0));
+        json.put("max", Arrays.stream(times).max().orElse(0));
+        return json;
+    }
+
+    private static JSONObject counts(long[] counts) {
+        JSONObject json = new JSONObject();
+        json.put("mean", Arrays.stream(counts).average().orElse(0));
+        json.put("max", Arrays.stream(counts).max().orElse(0));
+        return json;
+    }
+
+    // percentiles of the last frames timed of each stage, GPU times only if supported
+    private static JSONObject stages(FrameTimer timer) {
+        JSONObject json = new JSONObject();
+        for (FrameTimer.Stage stage : FrameTimer.Stage.values()) {
+            JSONObject times = new JSONObject();
+            for (boolean onGpu : new boolean[] {false, true}) {
+                for (int p : new int[] {50, 95, 99}) {
+                    double ms = timer.percentile(stage, onGpu, p);
+                    // JSON has no NaN
+                    if (!Double.isNaN(ms)) {
+                        times.put((onGpu ? "gpu_p" : "cpu_p") + p, ms);
+                    }
+                }
+            }
+            json.put(stage.name().toLowerCase(), times);
+        }
+        return json;
+    }
+
+    // nearest rank, as FrameTimer does
+    private static double percentile(double[] times, double p) {
+        double[] sorted = times.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -1,9 +1,6 @@
 package ass2.spec;
 
-import com.jogamp.opengl.GL2;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * COMMENT: Comment Road 
@@ -12,32 +9,41 @@ import java.util.List;
  */
 public class Road {
 
-    private static final int SAMPLES_PER_SEG = 64;
+    // default largest distance between the drawn edges of a road and the real curve
+    public static final double DEFAULT_TOLERANCE = 0.005;
+    private static final int MAX_STEPS_PER_SEG = 256;
     private static final int TEX_PER_SEG = 16;
     private static final double VERY_SMALL_VALUE = 0.0000001;
-    private static final String TEX_FILE_NAME = "road.jpg";
-    private static final double H_INTERVAL = 0.01;
-
-    private float[] AMBIENT = {0.5f, 0.5f, 0.5f, 1};
-    private float[] DIFFUSE = {0.5f, 0.5f, 0.5f, 1};
-    private float[] SPECULAR = {0.6f, 0.6f, 0.6f, 1};
-    private float PHONG = 20;
+    // samples per segment of the arc length table
+    private static final int TABLE_SAMPLES_PER_SEG = 128;
 
     private Terrain myTerrain;
-    private List<Double> myPoints;
+    // x and z of each control point
+    private double[] myPoints;
+    private int myPointsSize;
     private double myWidth;
 
-    private MyTexture myTexture;
-    private int shaderProgram;
+    // bounding box, its altitudes and the triangles laid on the terrain are calculated in init()
+    private double[] myMin = new double[3];
+    private double[] myMax = new double[3];
+    private float[] myMesh;
+
+    // arc length table, built on first use: distance from the start, position and
+    // unit tangent at samples evenly spaced in t
+    private double[] myDistances;
+    private double[] myTablePoints;
+    private double[] myTableTangents;
 
     /** 
      * Create a new road starting at the specified point
      */
     public Road(double width, double x0, double y0) {
         myWidth = width;
-        myPoints = new ArrayList<Double>();
-        myPoints.add(x0);
-        myPoints.add(y0);
+        myPoints = new double[8];
+        myPoints[0] = x0;
+        myPoints[1] = y0;
+        myPointsSize = 2;
+        initFootprint();
     }
 
     /**
@@ -48,10 +54,9 @@ public class Road {
      */
     public Road(double width, double[] spine) {
         myWidth = width;
-        myPoints = new ArrayList<Double>();
-        for (int i = 0; i < spine.length; i++) {
-            myPoints.add(spine[i]);
-        }
+        myPoints = spine.clone();
+        myPointsSize = spine.length;
+        initFootprint();
     }
 
     /**
@@ -75,12 +80,17 @@ public class Road {
      * @param y3
      */
     public void addSegment(double x1, double y1, double x2, double y2, double x3, double y3) {
-        myPoints.add(x1);
-        myPoints.add(y1);
-        myPoints.add(x2);
-        myPoints.add(y2);
-        myPoints.add(x3);
-        myPoints.add(y3);        
+        if (myPointsSize + 6 > myPoints.length) {
+            myPoints = Arrays.copyOf(myPoints, 2 * myPoints.length + 6);
+        }
+        myPoints[myPointsSize++] = x1;
+        myPoints[myPointsSize++] = y1;
+        myPoints[myPointsSize++] = x2;
+        myPoints[myPointsSize++] = y2;
+        myPoints[myPointsSize++] = x3;
+        myPoints[myPointsSize++] = y3;
+        myDistances = null;
+        initFootprint();
     }
     
     /**
@@ -89,7 +99,7 @@ public class Road {
      * @return
      */
     public int size() {
-        return myPoints.size() / 6;
+        return myPointsSize / 6;
     }
 
     /**
@@ -100,8 +110,8 @@ public class Road {
      */
     public double[] controlPoint(int i) {
         double[] p = new double[2];
-        p[0] = myPoints.get(i*2);
-        p[1] = myPoints.get(i*2+1);
+        p[0] = myPoints[i*2];
+        p[1] = myPoints[i*2+1];
         return p;
     }
     
@@ -123,14 +133,14 @@ public class Road {
 
         i *= 6;
         
-        double x0 = myPoints.get(i++);
-        double y0 = myPoints.get(i++);
-        double x1 = myPoints.get(i++);
-        double y1 = myPoints.get(i++);
-        double x2 = myPoints.get(i++);
-        double y2 = myPoints.get(i++);
-        double x3 = myPoints.get(i++);
-        double y3 = myPoints.get(i);
+        double x0 = myPoints[i++];
+        double y0 = myPoints[i++];
+        double x1 = myPoints[i++];
+        double y1 = myPoints[i++];
+        double x2 = myPoints[i++];
+        double y2 = myPoints[i++];
+        double x3 = myPoints[i++];
+        double y3 = myPoints[i];
         
         double[] p = new double[2];
 
@@ -183,6 +193,12 @@ public class Road {
 
     // get the tangent degree of point t (0 <= t <= size())
     public double tanDeg(double t) {
+        double[] d = derivative(t);
+        return Math.toDegrees(Math.atan2(d[1], d[0]));
+    }
+
+    // derivative of the curve at t (0 <= t <= size())
+    private double[] derivative(double t) {
         int i = (int)Math.floor(t);
         if (i == size()) {
             i -= 1;
@@ -199,130 +215,359 @@ public class Road {
 
         i *= 6;
 
-        double x0 = myPoints.get(i++);
-        double y0 = myPoints.get(i++);
-        double x1 = myPoints.get(i++);
-        double y1 = myPoints.get(i++);
-        double x2 = myPoints.get(i++);
-        double y2 = myPoints.get(i++);
-        double x3 = myPoints.get(i++);
-        double y3 = myPoints.get(i);
+        double x0 = myPoints[i++];
+        double y0 = myPoints[i++];
+        double x1 = myPoints[i++];
+        double y1 = myPoints[i++];
+        double x2 = myPoints[i++];
+        double y2 = myPoints[i++];
+        double x3 = myPoints[i++];
+        double y3 = myPoints[i];
+
+        double[] d = new double[2];
+        d[0] = 3 * (b2(0, t) * (x1 - x0) + b2(1, t) * (x2 - x1) + b2(2, t) * (x3 - x2));
+        d[1] = 3 * (b2(0, t) * (y1 - y0) + b2(1, t) * (y2 - y1) + b2(2, t) * (y3 - y2));
+        return d;
+    }
 
-        double x = 3 * (b2(0, t) * (x1 - x0) + b2(1, t) * (x2 - x1) + b2(2, t) * (x3 - x2));
-        double y = 3 * (b2(0, t) * (y1 - y0) + b2(1, t) * (y2 - y1) + b2(2, t) * (y3 - y2));
+    /**
+     * Length of the spine, measured along the arc length table.
+     *
+     * @return
+     */
+    public double length() {
+        buildTable();
+        return myDistances[myDistances.length - 1];
+    }
 
-        return Math.toDegrees(Math.atan2(y, x));
+    /**
+     * Get the point at a distance along the spine, clamped to [0, length()].
+     *
+     * @param distance
+     * @return x and z of the point
+     */
+    public double[] pointAtDistance(double distance) {
+        return interpolate(myTablePoints, distance, false);
     }
 
-    public void init(GL2 gl, Terrain terrain) {
-        myTexture = new MyTexture(gl, TEX_FILE_NAME);
+    /**
+     * Get the direction of the spine at a distance along it, clamped to [0, length()].
+     *
+     * @param distance
+     * @return unit vector in x and z
+     */
+    public double[] tangentAtDistance(double distance) {
+        return interpolate(myTableTangents, distance, true);
+    }
+
+    /**
+     * Get the curve parameter, from 0 to size(), at a distance along the spine.
+     *
+     * @param distance
+     * @return
+     */
+    public double parameterAtDistance(double distance) {
+        buildTable();
+        int k = sample(distance);
+        return (k + fraction(k, distance)) / TABLE_SAMPLES_PER_SEG;
+    }
+
+    // interpolate a table of 2d values between the samples around a distance
+    private double[] interpolate(double[] table, double distance, boolean normalize) {
+        buildTable();
+        if (myDistances.length < 2) {
+            // a spine of a single point
+            return new double[] {table[0], table[1]};
+        }
+        int k = sample(distance);
+        double f = fraction(k, distance);
+        double[] p = new double[2];
+        p[0] = table[2 * k] + f * (table[2 * k + 2] - table[2 * k]);
+        p[1] = table[2 * k + 1] + f * (table[2 * k + 3] - table[2 * k + 1]);
+        if (normalize) {
+            double length = Math.sqrt(p[0] * p[0] + p[1] * p[1]);
+            if (length > 0) {
+                p[0] /= length;
+                p[1] /= length;
+            }
+        }
+        return p;
+    }
+
+    // the last sample at or before a distance, binary search
+    private int sample(double distance) {
+        int low = 0;
+        int high = myDistances.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (myDistances[mid] <= distance) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // where a distance lies between sample k and the next one, from 0 to 1
+    private double fraction(int k, double distance) {
+        if (k + 1 >= myDistances.length) {
+            return 0;
+        }
+        double step = myDistances[k + 1] - myDistances[k];
+        if (step <= 0) {
+            return 0;
+        }
+        return MathUtils.clamp((distance - myDistances[k]) / step, 0, 1);
+    }
+
+    private void buildTable() {
+        if (myDistances != null) {
+            return;
+        }
+        if (size() == 0) {
+            // no segments, the start point facing along x
+            myDistances = new double[1];
+            myTablePoints = controlPoint(0);
+            myTableTangents = new double[] {1, 0};
+            return;
+        }
+        int samples = size() * TABLE_SAMPLES_PER_SEG;
+        double[] distances = new double[samples + 1];
+        myTablePoints = new double[2 * (samples + 1)];
+        myTableTangents = new double[2 * (samples + 1)];
+        for (int k = 0; k <= samples; k++) {
+            double t = (double) k / TABLE_SAMPLES_PER_SEG;
+            double[] p = point(t);
+            double[] d = derivative(t);
+            double length = Math.sqrt(d[0] * d[0] + d[1] * d[1]);
+            myTablePoints[2 * k] = p[0];
+            myTablePoints[2 * k + 1] = p[1];
+            myTableTangents[2 * k] = length > 0 ? d[0] / length : 0;
+            myTableTangents[2 * k + 1] = length > 0 ? d[1] / length : 0;
+            if (k > 0) {
+                double dx = p[0] - myTablePoints[2 * k - 2];
+                double dz = p[1] - myTablePoints[2 * k - 1];
+                distances[k] = distances[k - 1] + Math.sqrt(dx * dx + dz * dz);
+            }
+        }
+        myDistances = distances;
+    }
+
+    /**
+     * Lay the road onto a terrain. Only reads the terrain, so several roads can
+     * be initialised at the same time.
+     *
+     * @param terrain
+     */
+    public void init(Terrain terrain) {
         setMyTerrain(terrain);
+        myMesh = tessellate(terrain.getRoadTolerance());
+
+        myMin[1] = Double.POSITIVE_INFINITY;
+        myMax[1] = Double.NEGATIVE_INFINITY;
+        for (int i = 1; i < myMesh.length; i += RoadTessellator.VERTEX_SIZE) {
+            myMin[1] = Math.min(myMin[1], myMesh[i]);
+            myMax[1] = Math.max(myMax[1], myMesh[i]);
+        }
+        if (myMesh.length == 0) {
+            myMin[1] = myMax[1] = 0;
+        }
+    }
+
+    // the curve stays inside the convex hull of its control points
+    private void initFootprint() {
+        myMin[0] = myMin[2] = Double.POSITIVE_INFINITY;
+        myMax[0] = myMax[2] = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < myPointsSize / 2; i++) {
+            double[] c = controlPoint(i);
+            myMin[0] = Math.min(myMin[0], c[0]);
+            myMin[2] = Math.min(myMin[2], c[1]);
+            myMax[0] = Math.max(myMax[0], c[0]);
+            myMax[2] = Math.max(myMax[2], c[1]);
+        }
+        for (int i = 0; i < 3; i += 2) {
+            myMin[i] -= myWidth / 2;
+            myMax[i] += myWidth / 2;
+        }
+    }
+
+    // corners of the bounding box, the altitudes are 0 until init()
+    public double[] getMin() {
+        return myMin;
+    }
 
-        try {
-            shaderProgram = Shader.initShaders(gl, "/shader/per_pixel_vshader.glsl", "/shader/per_pixel_fshader.glsl");
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(0);
+    public double[] getMax() {
+        return myMax;
+    }
+
+    /**
+     * Triangles of the road laid on the terrain, RoadTessellator.VERTEX_SIZE floats per vertex.
+     *
+     * @return
+     */
+    public float[] getMesh() {
+        return myMesh;
+    }
+
+    /**
+     * Number of even steps in t that keep a segment within a tolerance.
+     *
+     * The chords of a cubic with n steps are at most max|B''| / (8 n^2) from the curve,
+     * which bounds the error of the centre line. The edges are offset by half the width,
+     * so on curves they also cut corners by up to width / 2 * (1 - cos(step angle / 2)),
+     * which bounds the angle turned in one step. The curve turns no more than its
+     * control polygon. Each of the two errors gets half of the tolerance.
+     *
+     * @param segment
+     * @param tolerance
+     * @return
+     */
+    int steps(int segment, double tolerance) {
+        int i = segment * 6;
+        double x0 = myPoints[i++];
+        double y0 = myPoints[i++];
+        double x1 = myPoints[i++];
+        double y1 = myPoints[i++];
+        double x2 = myPoints[i++];
+        double y2 = myPoints[i++];
+        double x3 = myPoints[i++];
+        double y3 = myPoints[i];
+
+        double second = 6 * Math.max(Math.hypot(x0 - 2 * x1 + x2, y0 - 2 * y1 + y2),
+                Math.hypot(x1 - 2 * x2 + x3, y1 - 2 * y2 + y3));
+        double flat = Math.ceil(Math.sqrt(second / (4 * tolerance)));
+
+        double turning = turning(x1 - x0, y1 - y0, x2 - x1, y2 - y1, x3 - x2, y3 - y2);
+        double stepAngle = 2 * Math.acos(MathUtils.clamp(1 - tolerance / myWidth, -1, 1));
+        double angle = stepAngle > 0 ? Math.ceil(turning / stepAngle) : MAX_STEPS_PER_SEG;
+
+        return (int) MathUtils.clamp(Math.max(flat, angle), 1, MAX_STEPS_PER_SEG);
+    }
+
+    // sum of the angles between consecutive edges of a control polygon, empty edges skipped
+    private static double turning(double... edges) {
+        double turning = 0;
+        double lastX = 0;
+        double lastY = 0;
+        for (int i = 0; i < edges.length; i += 2) {
+            double x = edges[i];
+            double y = edges[i + 1];
+            if (x == 0 && y == 0) {
+                continue;
+            }
+            if (lastX != 0 || lastY != 0) {
+                turning += Math.abs(Math.atan2(lastX * y - lastY * x, lastX * x + lastY * y));
+            }
+            lastX = x;
+            lastY = y;
         }
+        return turning;
     }
 
-    public void draw(GL2 gl) {
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, myTexture.getTextureId());
-
-        gl.glUseProgram(shaderProgram);
-        gl.glUniform1i(gl.glGetUniformLocation(shaderProgram, "texUnit"), 0);
-
-        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, AMBIENT, 0);
-        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, DIFFUSE, 0);
-        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, SPECULAR, 0);
-        gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, PHONG);
-
-        double[] p1 = new double[2];
-        double[] p2 = new double[2];
-        int sampleSize = size() * SAMPLES_PER_SEG;
-        double ratio = TEX_PER_SEG / SAMPLES_PER_SEG;
-        double[] p = point(0);
-        double alt = myTerrain.altitude(p[0], p[1]) + 0.001;
-
-        gl.glBegin(GL2.GL_TRIANGLE_STRIP);
-        for (int i = 0; i <= sampleSize; i++) {
-            double t = (double) i * size() / sampleSize;
-            p = point(t);
-            double angle = tanDeg(t);
-            double angle1 = angle + 90;
-            double dx = myWidth / 2 * Math.cos(Math.toRadians(angle1));
-            double dy = myWidth / 2 * Math.sin(Math.toRadians(angle1));
-            // p2 is a point on the top line of the road
-            // p1 is a point on the bottom line of the road
-            p1[0] = p[0] + dx;
-            p1[1] = p[1] + dy;
-            p2[0] = p[0] - dx;
-            p2[1] = p[1] - dy;
-            gl.glNormal3d(0, 1, 0); // flat road
-            gl.glTexCoord2d(0, i * ratio);
-            gl.glVertex3d(p2[0], alt, p2[1]);
-            gl.glTexCoord2d(1, i * ratio);
-            gl.glVertex3d(p1[0], alt, p1[1]);
+    /**
+     * Sample both edges of the road and split the quads between them along the terrain grid.
+     * Each segment gets as few samples as its curvature allows, found by forward differencing.
+     *
+     * @param tolerance largest distance between the drawn edges and the real ones
+     * @return
+     */
+    private float[] tessellate(double tolerance) {
+        RoadTessellator mesh = new RoadTessellator(myTerrain);
+        // the texture runs along the distance, so it is not stretched
+        double length = length();
+        double ratio = length > 0 ? TEX_PER_SEG * size() / length : 0;
+
+        // x, z, s, t of the top and bottom line of the road at the last sample
+        double[] top0 = null;
+        double[] bottom0 = null;
+        double distance = 0;
+        double lastX = myPoints[0];
+        double lastY = myPoints[1];
+        for (int segment = 0; segment < size(); segment++) {
+            int n = steps(segment, tolerance);
+            double h = 1.0 / n;
+
+            int i = segment * 6;
+            double x0 = myPoints[i++];
+            double y0 = myPoints[i++];
+            double x1 = myPoints[i++];
+            double y1 = myPoints[i++];
+            double x2 = myPoints[i++];
+            double y2 = myPoints[i++];
+            double x3 = myPoints[i++];
+            double y3 = myPoints[i];
+
+            // the curve as a t^3 + b t^2 + c t + p0, its derivative 3a t^2 + 2b t + c
+            double ax = -x0 + 3 * x1 - 3 * x2 + x3;
+            double ay = -y0 + 3 * y1 - 3 * y2 + y3;
+            double bx = 3 * x0 - 6 * x1 + 3 * x2;
+            double by = 3 * y0 - 6 * y1 + 3 * y2;
+            double cx = 3 * (x1 - x0);
+            double cy = 3 * (y1 - y0);
+
+            // forward differences of the point and of the derivative
+            double px = x0;
+            double py = y0;
+            double px1 = (ax * h + bx) * h * h + cx * h;
+            double py1 = (ay * h + by) * h * h + cy * h;
+            double px3 = 6 * ax * h * h * h;
+            double py3 = 6 * ay * h * h * h;
+            double px2 = px3 + 2 * bx * h * h;
+            double py2 = py3 + 2 * by * h * h;
+            double dx = cx;
+            double dy = cy;
+            double dx2 = 6 * ax * h * h;
+            double dy2 = 6 * ay * h * h;
+            double dx1 = 3 * ax * h * h + 2 * bx * h;
+            double dy1 = 3 * ay * h * h + 2 * by * h;
+
+            // the first sample of a segment is the last of the one before
+            for (int k = segment == 0 ? 0 : 1; k <= n; k++) {
+                if (k > 0) {
+                    px += px1;
+                    py += py1;
+                    px1 += px2;
+                    py1 += py2;
+                    px2 += px3;
+                    py2 += py3;
+                    dx += dx1;
+                    dy += dy1;
+                    dx1 += dx2;
+                    dy1 += dy2;
+                }
+                if (k == n) {
+                    // no rounding errors at the joins
+                    px = x3;
+                    py = y3;
+                }
+                double[] tangent = {dx, dy};
+                double tangentLength = Math.hypot(dx, dy);
+                if (tangentLength < VERY_SMALL_VALUE) {
+                    // control points on top of each other
+                    tangent = derivative(segment + k * h);
+                    tangentLength = Math.hypot(tangent[0], tangent[1]);
+                }
+
+                distance += Math.hypot(px - lastX, py - lastY);
+                lastX = px;
+                lastY = py;
+
+                // the tangent turned by 90 degrees
+                double ox = -myWidth / 2 * tangent[1] / tangentLength;
+                double oy = myWidth / 2 * tangent[0] / tangentLength;
+                double[] top1 = {px - ox, py - oy, 0, distance * ratio};
+                double[] bottom1 = {px + ox, py + oy, 1, distance * ratio};
+                if (top0 != null) {
+                    // same triangles as a strip through top0, bottom0, top1, bottom1
+                    mesh.triangle(top0, bottom0, top1);
+                    mesh.triangle(top1, bottom0, bottom1);
+                }
+                top0 = top1;
+                bottom0 = bottom1;
+            }
         }
-        gl.glEnd();
-
-        // try to extrude the road over the terrain, not good
-//        int rows = (int) Math.ceil(myWidth / H_INTERVAL) + 1;
-//        double[][][] points = new double[rows][sampleSize + 1][3];
-//        for (int i = 0; i <= sampleSize; i++) {
-//            double t = (double) i * size() / sampleSize;
-//            p = point(t);
-//            double angle = tanDeg(t) + 90;
-//            double cos = Math.cos(Math.toRadians(angle));
-//            double sin = Math.sin(Math.toRadians(angle));
-//            double[] top = new double[3];
-//            top[0] = p[0] - myWidth / 2 * cos;
-//            top[2] = p[1] - myWidth / 2 * sin;
-//            top[1] = myTerrain.altitude(top[0], top[2]);
-//            points[0][i] = top.clone();
-//            for (int j = 1; j < rows; j++) {
-//                double h = j * H_INTERVAL;
-//                h = Math.min(myWidth, h);
-//                double[] mid = new double[3];
-//                mid[0] = top[0] + h * cos;
-//                mid[2] = top[2] + h * sin;
-//                mid[1] = myTerrain.altitude(mid[0], mid[2]);
-//                points[j][i] = mid.clone();
-//            }
-//        }
-//
-//        gl.glBegin(GL2.GL_TRIANGLES);
-//        for (int i = 0; i < points.length - 1; i++) {
-//            for (int j = 0; j < points[0].length - 1; j++) {
-//                double[] v1 = points[i][j];
-//                double[] v2 = points[i + 1][j];
-//                double[] v3 = points[i + 1][j + 1];
-//                double[] v4 = points[i][j + 1];
-//
-//                double[] normal1 = MathUtils.getNormal(v1, v2, v3);
-//                double[] normal2 = MathUtils.getNormal(v1, v3, v4);
-//
-//                gl.glNormal3dv(normal1, 0);
-//                gl.glTexCoord2d((double) i / points.length, j * ratio);
-//                gl.glVertex3dv(v1, 0);
-//                gl.glTexCoord2d((double) (i + 1) / points.length, j * ratio);
-//                gl.glVertex3dv(v2, 0);
-//                gl.glTexCoord2d((double) (i + 1) / points.length, (j + 1) * ratio);
-//                gl.glVertex3dv(v3, 0);
-//
-//                gl.glNormal3dv(normal2, 0);
-//                gl.glTexCoord2d((double) i / points.length, j * ratio);
-//                gl.glVertex3dv(v1, 0);
-//                gl.glTexCoord2d((double) (i + 1) / points.length, (j + 1) * ratio);
-//                gl.glVertex3dv(v3, 0);
-//                gl.glTexCoord2d((double) i / points.length, (j + 1) * ratio);
-//                gl.glVertex3dv(v4, 0);
-//            }
-//        }
-//        gl.glEnd();
-
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
-        gl.glUseProgram(0);
+        return mesh.toArray();
     }
 
     public static void main(String[] args) {
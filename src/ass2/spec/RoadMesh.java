@@ -0,0 +1,166 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The triangles of all roads, built once into one static vertex buffer.
+ *
+ * Roads do not move, so their geometry is only computed when the level is loaded,
+ * see Road.init().
+ * Each frame the visible roads are added and then drawn together with one
+ * glMultiDrawArrays call.
+ */
+public class RoadMesh {
+
+    private static final String TEX_FILE_NAME = "road.jpg";
+    private static final float[] AMBIENT = {0.5f, 0.5f, 0.5f, 1};
+    private static final float[] DIFFUSE = {0.5f, 0.5f, 0.5f, 1};
+    private static final float[] SPECULAR = {0.6f, 0.6f, 0.6f, 1};
+    private static final float PHONG = 20;
+
+    // texture coordinates grow along the road, too far for half floats
+    private static final VertexFormat FORMAT = VertexFormat.FLOAT;
+
+    private int[] bufferIds = new int[1];
+    private int vertexCount;
+    // first vertex and number of vertices of each road
+    private int[] myFirst;
+    private int[] myCount;
+    private Map<Road, Integer> myIndexes = new IdentityHashMap<>();
+
+    // roads added since the last draw
+    private IntBuffer myDrawFirst;
+    private IntBuffer myDrawCount;
+
+    private MyTexture myTexture;
+    private ShaderProgram shaderProgram;
+    private int texUnit;
+
+    /**
+     * Upload the meshes of initialised roads.
+     *
+     * @param gl
+     * @param roads
+     */
+    public void init(GL2 gl, List<Road> roads) {
+        myFirst = new int[roads.size()];
+        myCount = new int[roads.size()];
+        vertexCount = 0;
+        myIndexes.clear();
+        for (int i = 0; i < roads.size(); i++) {
+            myIndexes.put(roads.get(i), i);
+            myFirst[i] = vertexCount;
+            myCount[i] = roads.get(i).getMesh().length / RoadTessellator.VERTEX_SIZE;
+            vertexCount += myCount[i];
+        }
+        myDrawFirst = newIntBuffer(Math.max(1, roads.size()));
+        myDrawCount = newIntBuffer(Math.max(1, roads.size()));
+        if (vertexCount == 0) {
+            return;
+        }
+
+        ByteBuffer data = FORMAT.allocate(vertexCount);
+        int n = 0;
+        for (Road road : roads) {
+            float[] mesh = road.getMesh();
+            for (int i = 0; i < mesh.length; i += RoadTessellator.VERTEX_SIZE) {
+                FORMAT.put(data, vertexCount, n++, mesh[i], mesh[i + 1], mesh[i + 2],
+                        mesh[i + 3], mesh[i + 4], mesh[i + 5], mesh[i + 6], mesh[i + 7]);
+            }
+        }
+
+        gl.glGenBuffers(bufferIds.length, bufferIds, 0);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, bufferIds[0]);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, data.capacity(), data, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+        myTexture = TextureCache.get(gl, TEX_FILE_NAME);
+
+        try {
+            shaderProgram = ShaderCache.get(gl, "/shader/per_pixel_vshader.glsl", "/shader/per_pixel_fshader.glsl");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(0);
+        }
+
+        texUnit = shaderProgram.uniform("texUnit");
+    }
+
+    public void release(GL2 gl) {
+        if (bufferIds[0] > 0) {
+            gl.glDeleteBuffers(bufferIds.length, bufferIds, 0);
+            bufferIds[0] = 0;
+        }
+        TextureCache.release(gl, myTexture);
+        myTexture = null;
+        ShaderCache.release(gl, shaderProgram);
+        shaderProgram = null;
+    }
+
+    /**
+     * Draw a road with the next draw().
+     *
+     * @param road one of the roads given to init()
+     */
+    public void add(Road road) {
+        int i = myIndexes.get(road);
+        myDrawFirst.put(myFirst[i]);
+        myDrawCount.put(myCount[i]);
+    }
+
+    /**
+     * Draw the roads added since the last call.
+     *
+     * @param gl
+     */
+    public void draw(GL2 gl) {
+        int count = myDrawCount.position();
+        myDrawFirst.flip();
+        myDrawCount.flip();
+        if (count > 0 && bufferIds[0] > 0) {
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, myTexture.getTextureId());
+
+            gl.glUseProgram(shaderProgram.getID());
+            gl.glUniform1i(texUnit, 0);
+
+            gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, AMBIENT, 0);
+            gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, DIFFUSE, 0);
+            gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, SPECULAR, 0);
+            gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, PHONG);
+
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, bufferIds[0]);
+            FORMAT.enable(gl);
+            FORMAT.setPointers(gl, vertexCount);
+
+            // the road lies exactly on the terrain, pull it towards the viewer
+            gl.glEnable(GL2.GL_POLYGON_OFFSET_FILL);
+            gl.glPolygonOffset(-1, -1);
+            gl.glMultiDrawArrays(GL2.GL_TRIANGLES, myDrawFirst, myDrawCount, count);
+            gl.glDisable(GL2.GL_POLYGON_OFFSET_FILL);
+
+            FORMAT.disable(gl);
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+            gl.glUseProgram(0);
+        }
+        myDrawFirst.clear();
+        myDrawCount.clear();
+    }
+
+    // number of vertices of all roads
+    public int size() {
+        return vertexCount;
+    }
+
+    private static IntBuffer newIntBuffer(int size) {
+        return ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+}
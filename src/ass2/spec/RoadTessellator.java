@@ -0,0 +1,195 @@
+package ass2.spec;
+
+import java.util.Arrays;
+
+/**
+ * Lays the triangles of a road onto the terrain.
+ *
+ * Every cell of the terrain grid is two flat triangles split by the diagonal
+ * x + z = const. Road triangles are clipped against the grid lines and these
+ * diagonals, so each piece lies inside one terrain triangle and, with its corners
+ * at the terrain altitude, follows the surface exactly.
+ */
+class RoadTessellator {
+
+    // x, y, z, normal and texture coordinate of each vertex
+    static final int VERTEX_SIZE = 8;
+
+    // keep the road just above the ground
+    private static final double LIFT = 0.001;
+    // twice the area below which a piece is dropped
+    private static final double MIN_AREA = 1e-12;
+    // x, z, s, t of each corner of a polygon
+    private static final int CORNER_SIZE = 4;
+
+    private Terrain myTerrain;
+
+    private float[] myVertices = new float[VERTEX_SIZE * 256];
+    private int mySize;
+
+    // polygon being clipped, its copy clipped against the cell and scratch space
+    private double[] myPolygon = new double[CORNER_SIZE * 16];
+    private int myCorners;
+    private double[] myCell = new double[CORNER_SIZE * 16];
+    private int myCellCorners;
+    private double[] myClipped = new double[CORNER_SIZE * 16];
+
+    RoadTessellator(Terrain terrain) {
+        myTerrain = terrain;
+    }
+
+    /**
+     * Add a triangle of the road, each corner given as x, z and texture coordinates s, t.
+     * The winding of the triangle is kept.
+     *
+     * @param a
+     * @param b
+     * @param c
+     */
+    void triangle(double[] a, double[] b, double[] c) {
+        int minX = (int) Math.floor(Math.min(a[0], Math.min(b[0], c[0])));
+        int minZ = (int) Math.floor(Math.min(a[1], Math.min(b[1], c[1])));
+        int maxX = Math.max(minX, (int) Math.ceil(Math.max(a[0], Math.max(b[0], c[0]))) - 1);
+        int maxZ = Math.max(minZ, (int) Math.ceil(Math.max(a[1], Math.max(b[1], c[1]))) - 1);
+
+        for (int z = minZ; z <= maxZ; z++) {
+            for (int x = minX; x <= maxX; x++) {
+                myCorners = 0;
+                corner(a);
+                corner(b);
+                corner(c);
+                clip(1, 0, x + 1);
+                clip(-1, 0, -x);
+                clip(0, 1, z + 1);
+                clip(0, -1, -z);
+                if (myCorners < 3) {
+                    continue;
+                }
+
+                // both triangles of the cell
+                int diagonal = x + z + 1;
+                myCell = copy(myPolygon, myCell, myCorners);
+                myCellCorners = myCorners;
+                clip(1, 1, diagonal);
+                emit();
+                myPolygon = copy(myCell, myPolygon, myCellCorners);
+                myCorners = myCellCorners;
+                clip(-1, -1, -diagonal);
+                emit();
+            }
+        }
+    }
+
+    // the vertices of all triangles added so far
+    float[] toArray() {
+        return Arrays.copyOf(myVertices, mySize);
+    }
+
+    private void corner(double[] p) {
+        int k = CORNER_SIZE * myCorners++;
+        myPolygon[k] = p[0];
+        myPolygon[k + 1] = p[1];
+        myPolygon[k + 2] = p[2];
+        myPolygon[k + 3] = p[3];
+    }
+
+    // keep the part of the polygon where a * x + b * z <= c
+    private void clip(double a, double b, double c) {
+        if (myCorners < 3) {
+            return;
+        }
+        if (myClipped.length < CORNER_SIZE * 2 * myCorners) {
+            myClipped = new double[CORNER_SIZE * 2 * myCorners];
+        }
+        int n = 0;
+        for (int i = 0; i < myCorners; i++) {
+            int p = CORNER_SIZE * i;
+            int q = CORNER_SIZE * ((i + 1) % myCorners);
+            double dp = a * myPolygon[p] + b * myPolygon[p + 1] - c;
+            double dq = a * myPolygon[q] + b * myPolygon[q + 1] - c;
+            if (dp <= 0) {
+                System.arraycopy(myPolygon, p, myClipped, CORNER_SIZE * n++, CORNER_SIZE);
+            }
+            if ((dp < 0 && dq > 0) || (dp > 0 && dq < 0)) {
+                double f = dp / (dp - dq);
+                int k = CORNER_SIZE * n++;
+                for (int j = 0; j < CORNER_SIZE; j++) {
+                    myClipped[k + j] = myPolygon[p + j] + f * (myPolygon[q + j] - myPolygon[p + j]);
+                }
+            }
+        }
+
+        double[] swap = myPolygon;
+        myPolygon = myClipped;
+        myClipped = swap;
+        myCorners = n;
+    }
+
+    // lift the polygon onto the terrain and add it as a fan of triangles
+    private void emit() {
+        if (myCorners < 3) {
+            return;
+        }
+        double[] y = new double[myCorners];
+        for (int i = 0; i < myCorners; i++) {
+            int p = CORNER_SIZE * i;
+            y[i] = myTerrain.altitude(myPolygon[p], myPolygon[p + 1]) + LIFT;
+        }
+
+        // Newell's normal, the piece is flat so any of its corners would do
+        double nx = 0;
+        double ny = 0;
+        double nz = 0;
+        for (int i = 0; i < myCorners; i++) {
+            int j = (i + 1) % myCorners;
+            double xi = myPolygon[CORNER_SIZE * i];
+            double zi = myPolygon[CORNER_SIZE * i + 1];
+            double xj = myPolygon[CORNER_SIZE * j];
+            double zj = myPolygon[CORNER_SIZE * j + 1];
+            nx += (y[i] - y[j]) * (zi + zj);
+            ny += (zi - zj) * (xi + xj);
+            nz += (xi - xj) * (y[i] + y[j]);
+        }
+        double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (length < MIN_AREA) {
+            return;
+        }
+        // the normal points up whichever way the road is wound
+        if (ny < 0) {
+            length = -length;
+        }
+        nx /= length;
+        ny /= length;
+        nz /= length;
+
+        int needed = mySize + 3 * (myCorners - 2) * VERTEX_SIZE;
+        if (needed > myVertices.length) {
+            myVertices = Arrays.copyOf(myVertices, Math.max(needed, 2 * myVertices.length));
+        }
+        for (int k = 1; k < myCorners - 1; k++) {
+            vertex(0, y[0], nx, ny, nz);
+            vertex(k, y[k], nx, ny, nz);
+            vertex(k + 1, y[k + 1], nx, ny, nz);
+        }
+    }
+
+    private void vertex(int i, double y, double nx, double ny, double nz) {
+        int p = CORNER_SIZE * i;
+        myVertices[mySize++] = (float) myPolygon[p];
+        myVertices[mySize++] = (float) y;
+        myVertices[mySize++] = (float) myPolygon[p + 1];
+        myVertices[mySize++] = (float) nx;
+        myVertices[mySize++] = (float) ny;
+        myVertices[mySize++] = (float) nz;
+        myVertices[mySize++] = (float) myPolygon[p + 2];
+        myVertices[mySize++] = (float) myPolygon[p + 3];
+    }
+
+    private static double[] copy(double[] from, double[] to, int corners) {
+        if (to.length < CORNER_SIZE * corners) {
+            to = new double[from.length];
+        }
+        System.arraycopy(from, 0, to, 0, CORNER_SIZE * corners);
+        return to;
+    }
+}
@@ -0,0 +1,80 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Shares shader programs between objects, so each pair of shader files is
+ * compiled and linked only once.
+ *
+ * Every get() has to be matched by a release(), the program is deleted when
+ * its last user releases it.
+ */
+public class ShaderCache {
+
+    private static class Entry {
+        final String key;
+        final ShaderProgram program;
+        int references;
+
+        Entry(String key, ShaderProgram program) {
+            this.key = key;
+            this.program = program;
+        }
+    }
+
+    // vertex and fragment shader paths -> shared program
+    private static Map<String, Entry> myEntries = new HashMap<>();
+    private static Map<ShaderProgram, Entry> myPrograms = new IdentityHashMap<>();
+
+    /**
+     * Get the shared program for a vertex and a fragment shader, building it on first use.
+     *
+     * @param gl
+     * @param vs
+     * @param fs
+     * @return
+     * @throws Exception if the shaders do not compile or link
+     */
+    public static ShaderProgram get(GL2 gl, String vs, String fs) throws Exception {
+        String key = vs + "|" + fs;
+        Entry entry = myEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key, new ShaderProgram(gl, vs, fs));
+            myEntries.put(key, entry);
+            myPrograms.put(entry.program, entry);
+        }
+        entry.references++;
+        return entry.program;
+    }
+
+    /**
+     * Give back a program from get(), it is deleted once nobody uses it.
+     *
+     * @param gl
+     * @param program
+     */
+    public static void release(GL2 gl, ShaderProgram program) {
+        if (program == null) {
+            return;
+        }
+        Entry entry = myPrograms.get(program);
+        if (entry == null) {
+            program.release(gl);
+            return;
+        }
+        if (--entry.references == 0) {
+            myEntries.remove(entry.key);
+            myPrograms.remove(program);
+            program.release(gl);
+        }
+    }
+
+    // number of programs currently linked
+    public static int size() {
+        return myEntries.size();
+    }
+}
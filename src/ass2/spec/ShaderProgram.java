@@ -0,0 +1,95 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A linked shader program with the locations of its active uniforms and
+ * attributes, looked up once after linking instead of every frame.
+ */
+public class ShaderProgram {
+
+    private int myID;
+    private Map<String, Integer> myUniforms = new HashMap<>();
+    private Map<String, Integer> myAttributes = new HashMap<>();
+
+    /**
+     * Compile and link a vertex and a fragment shader.
+     *
+     * @param gl
+     * @param vs path of the vertex shader
+     * @param fs path of the fragment shader
+     * @throws Exception
+     */
+    public ShaderProgram(GL2 gl, String vs, String fs) throws Exception {
+        myID = Shader.initShaders(gl, vs, fs);
+
+        int[] count = new int[1];
+        int[] maxLength = new int[1];
+        int[] length = new int[1];
+        int[] size = new int[1];
+        int[] type = new int[1];
+
+        gl.glGetProgramiv(myID, GL2.GL_ACTIVE_UNIFORMS, count, 0);
+        gl.glGetProgramiv(myID, GL2.GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+        byte[] name = new byte[Math.max(maxLength[0], 1)];
+        for (int i = 0; i < count[0]; i++) {
+            gl.glGetActiveUniform(myID, i, name.length, length, 0, size, 0, type, 0, name, 0);
+            String uniform = new String(name, 0, length[0], StandardCharsets.US_ASCII);
+            put(myUniforms, uniform, gl.glGetUniformLocation(myID, uniform));
+        }
+
+        gl.glGetProgramiv(myID, GL2.GL_ACTIVE_ATTRIBUTES, count, 0);
+        gl.glGetProgramiv(myID, GL2.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, maxLength, 0);
+        name = new byte[Math.max(maxLength[0], 1)];
+        for (int i = 0; i < count[0]; i++) {
+            gl.glGetActiveAttrib(myID, i, name.length, length, 0, size, 0, type, 0, name, 0);
+            String attribute = new String(name, 0, length[0], StandardCharsets.US_ASCII);
+            put(myAttributes, attribute, gl.glGetAttribLocation(myID, attribute));
+        }
+    }
+
+    // arrays are reported as "name[0]", make them findable by "name" too
+    private static void put(Map<String, Integer> locations, String name, int location) {
+        locations.put(name, location);
+        if (name.endsWith("[0]")) {
+            locations.put(name.substring(0, name.length() - 3), location);
+        }
+    }
+
+    public int getID() {
+        return myID;
+    }
+
+    /**
+     * Location of a uniform, -1 if the program does not use it (like glGetUniformLocation).
+     *
+     * @param name
+     * @return
+     */
+    public int uniform(String name) {
+        Integer location = myUniforms.get(name);
+        return location == null ? -1 : location;
+    }
+
+    /**
+     * Location of a vertex attribute, -1 if the program does not use it.
+     *
+     * @param name
+     * @return
+     */
+    public int attribute(String name) {
+        Integer location = myAttributes.get(name);
+        return location == null ? -1 : location;
+    }
+
+    public void release(GL2 gl) {
+        if (myID > 0) {
+            gl.glDeleteProgram(myID);
+            myID = 0;
+        }
+    }
+}
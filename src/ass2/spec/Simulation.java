@@ -0,0 +1,114 @@
+package ass2.spec;
+
+/**
+ * Steps the game at a fixed rate, however often frames are drawn.
+ *
+ * Every frame the time since the last frame is added up and spent in ticks of a
+ * fixed length. The hero is drawn between its state before and after the last
+ * tick, in proportion to the time left over. Ticks run on the thread that draws,
+ * so the hero is never moved while it is being drawn.
+ */
+public class Simulation {
+
+    public static final int TICKS_PER_SECOND = 60;
+    private static final double TICK = 1.0 / TICKS_PER_SECOND;
+    // after a long stall drop the time instead of catching up on it
+    private static final int MAX_TICKS_PER_FRAME = 8;
+
+    public interface Tick {
+        /**
+         * Advance the game by one tick.
+         *
+         * @param keys keys down during the tick, indexed by key code
+         * @param seconds length of the tick
+         */
+        void tick(boolean[] keys, double seconds);
+    }
+
+    private GameObject myObject;
+    private KeyState myKeys;
+    private Tick myTick;
+    private boolean[] myDown = new boolean[KeyState.size()];
+
+    // state of the object before and after the last tick, and while it is drawn
+    private double[] myPrevious = new double[4];
+    private double[] myCurrent = new double[4];
+    private boolean myInterpolated = false;
+
+    private long myLastTime = -1;
+    private double myAccumulator;
+
+    /**
+     * @param object the object whose translation and rotation around y are interpolated
+     * @param keys
+     * @param tick
+     */
+    public Simulation(GameObject object, KeyState keys, Tick tick) {
+        myObject = object;
+        myKeys = keys;
+        myTick = tick;
+        save(myCurrent);
+        save(myPrevious);
+    }
+
+    /**
+     * Run the ticks due by a time.
+     *
+     * @param nanoTime from System.nanoTime()
+     */
+    public void advance(long nanoTime) {
+        if (myLastTime < 0) {
+            myLastTime = nanoTime;
+        }
+        myAccumulator += (nanoTime - myLastTime) / 1e9;
+        myLastTime = nanoTime;
+
+        int ticks = 0;
+        while (myAccumulator >= TICK && ticks < MAX_TICKS_PER_FRAME) {
+            save(myPrevious);
+            myKeys.snapshot(myDown);
+            myTick.tick(myDown, TICK);
+            save(myCurrent);
+            myAccumulator -= TICK;
+            ticks++;
+        }
+        if (ticks == MAX_TICKS_PER_FRAME) {
+            myAccumulator = Math.min(myAccumulator, TICK);
+        }
+    }
+
+    /**
+     * Put the object between its last two states for drawing, until endDraw().
+     */
+    public void beginDraw() {
+        save(myCurrent);
+        double alpha = MathUtils.clamp(myAccumulator / TICK, 0, 1);
+        double[] t = myObject.getTranslation();
+        for (int i = 0; i < 3; i++) {
+            t[i] = myPrevious[i] + alpha * (myCurrent[i] - myPrevious[i]);
+        }
+        myObject.getRotation()[1] = myPrevious[3] + alpha * (myCurrent[3] - myPrevious[3]);
+        myInterpolated = true;
+    }
+
+    // back to the state of the last tick
+    public void endDraw() {
+        if (!myInterpolated) {
+            return;
+        }
+        double[] t = myObject.getTranslation();
+        for (int i = 0; i < 3; i++) {
+            t[i] = myCurrent[i];
+        }
+        myObject.getRotation()[1] = myCurrent[3];
+        myInterpolated = false;
+    }
+
+    private void save(double[] state) {
+        double[] t = myObject.getTranslation();
+        state[0] = t[0];
+        state[1] = t[1];
+        state[2] = t[2];
+        state[3] = myObject.getRotation()[1];
+    }
+}
@@ -0,0 +1,309 @@
+package ass2.spec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A uniform grid over the x/z extent of the terrain that finds objects by position.
+ *
+ * Every object is kept with its bounding box in each cell the box overlaps. Queries
+ * only visit the cells they touch and test the boxes of the objects in them, so their
+ * cost follows the number of objects found rather than the number of objects. Objects
+ * outside the grid are kept in the border cells.
+ *
+ * Not thread safe, queries share a scratch stamp per object.
+ */
+public class SpatialGrid<T> {
+
+    // minX, minY, minZ, maxX, maxY, maxZ of each object
+    private static final int BOX_SIZE = 6;
+
+    private double myMinX;
+    private double myMinZ;
+    private double myCellSize;
+    private int myCellsX;
+    private int myCellsZ;
+
+    // ids of the objects overlapping each cell and the altitudes they cover
+    private int[][] myCells;
+    private int[] myCellSizes;
+    private double[] myCellMinY;
+    private double[] myCellMaxY;
+    // box around all objects
+    private double[] myBounds = {
+            Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY
+    };
+
+    private List<T> myObjects = new ArrayList<>();
+    private double[] myBoxes = new double[BOX_SIZE * 64];
+    // the last query that found each object, so objects in several cells are found once
+    private int[] myStamps = new int[64];
+    private int myQuery;
+
+    /**
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     * @param cellSize width and depth of a cell
+     */
+    public SpatialGrid(double minX, double minZ, double maxX, double maxZ, double cellSize) {
+        myMinX = minX;
+        myMinZ = minZ;
+        myCellSize = cellSize;
+        myCellsX = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+        myCellsZ = Math.max(1, (int) Math.ceil((maxZ - minZ) / cellSize));
+        int cells = myCellsX * myCellsZ;
+        myCells = new int[cells][];
+        myCellSizes = new int[cells];
+        myCellMinY = new double[cells];
+        myCellMaxY = new double[cells];
+        Arrays.fill(myCellMinY, Double.POSITIVE_INFINITY);
+        Arrays.fill(myCellMaxY, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Add an object with its bounding box.
+     *
+     * @return id of the object, its index in the order of adding
+     */
+    public int add(T object, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        int id = myObjects.size();
+        myObjects.add(object);
+        if (BOX_SIZE * (id + 1) > myBoxes.length) {
+            myBoxes = Arrays.copyOf(myBoxes, 2 * myBoxes.length);
+            myStamps = Arrays.copyOf(myStamps, 2 * myStamps.length);
+        }
+        setBox(id, minX, minY, minZ, maxX, maxY, maxZ);
+        insert(id);
+        return id;
+    }
+
+    /**
+     * Give an object a new bounding box.
+     *
+     * @param id from add()
+     */
+    public void move(int id, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        remove(id);
+        setBox(id, minX, minY, minZ, maxX, maxY, maxZ);
+        insert(id);
+    }
+
+    public T get(int id) {
+        return myObjects.get(id);
+    }
+
+    public int size() {
+        return myObjects.size();
+    }
+
+    /**
+     * Find the objects whose boxes come within a distance of a point in x and z.
+     *
+     * @param x
+     * @param z
+     * @param radius
+     * @param out the objects found are added to it
+     */
+    public void queryRadius(double x, double z, double radius, List<T> out) {
+        int query = nextQuery();
+        double r2 = radius * radius;
+        int x0 = cellX(x - radius);
+        int x1 = cellX(x + radius);
+        int z0 = cellZ(z - radius);
+        int z1 = cellZ(z + radius);
+        for (int cz = z0; cz <= z1; cz++) {
+            for (int cx = x0; cx <= x1; cx++) {
+                int cell = cz * myCellsX + cx;
+                int[] ids = myCells[cell];
+                for (int i = 0; i < myCellSizes[cell]; i++) {
+                    int id = ids[i];
+                    if (myStamps[id] == query) {
+                        continue;
+                    }
+                    myStamps[id] = query;
+                    int b = BOX_SIZE * id;
+                    double dx = x - MathUtils.clamp(x, myBoxes[b], myBoxes[b + 3]);
+                    double dz = z - MathUtils.clamp(z, myBoxes[b + 2], myBoxes[b + 5]);
+                    if (dx * dx + dz * dz <= r2) {
+                        out.add(myObjects.get(id));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the objects whose boxes overlap a rectangle in x and z.
+     *
+     * @param minX
+     * @param minZ
+     * @param maxX
+     * @param maxZ
+     * @param out the objects found are added to it
+     */
+    public void queryBox(double minX, double minZ, double maxX, double maxZ, List<T> out) {
+        int query = nextQuery();
+        for (int cz = cellZ(minZ); cz <= cellZ(maxZ); cz++) {
+            for (int cx = cellX(minX); cx <= cellX(maxX); cx++) {
+                int cell = cz * myCellsX + cx;
+                int[] ids = myCells[cell];
+                for (int i = 0; i < myCellSizes[cell]; i++) {
+                    int id = ids[i];
+                    if (myStamps[id] == query) {
+                        continue;
+                    }
+                    myStamps[id] = query;
+                    int b = BOX_SIZE * id;
+                    if (myBoxes[b] <= maxX && myBoxes[b + 3] >= minX
+                            && myBoxes[b + 2] <= maxZ && myBoxes[b + 5] >= minZ) {
+                        out.add(myObjects.get(id));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the objects whose boxes may be inside a view frustum. Blocks of cells are
+     * split in four until they are outside the frustum or single cells.
+     *
+     * @param frustum
+     * @param out the objects found are added to it
+     */
+    public void queryFrustum(Frustum frustum, List<T> out) {
+        queryFrustum(frustum, nextQuery(), 0, 0, myCellsX, myCellsZ, out);
+    }
+
+    private void queryFrustum(Frustum frustum, int query, int x0, int z0, int x1, int z1, List<T> out) {
+        if (x0 >= x1 || z0 >= z1) {
+            return;
+        }
+        double minY = myBounds[1];
+        double maxY = myBounds[4];
+        if (x1 - x0 == 1 && z1 - z0 == 1) {
+            int cell = z0 * myCellsX + x0;
+            minY = myCellMinY[cell];
+            maxY = myCellMaxY[cell];
+        }
+        if (minY > maxY) {
+            // nothing in there
+            return;
+        }
+
+        // border cells also hold the objects outside the grid
+        double minX = myMinX + x0 * myCellSize;
+        double minZ = myMinZ + z0 * myCellSize;
+        double maxX = myMinX + x1 * myCellSize;
+        double maxZ = myMinZ + z1 * myCellSize;
+        if (x0 == 0) {
+            minX = Math.min(minX, myBounds[0]);
+        }
+        if (z0 == 0) {
+            minZ = Math.min(minZ, myBounds[2]);
+        }
+        if (x1 == myCellsX) {
+            maxX = Math.max(maxX, myBounds[3]);
+        }
+        if (z1 == myCellsZ) {
+            maxZ = Math.max(maxZ, myBounds[5]);
+        }
+        if (!frustum.intersectsBox(minX, minY, minZ, maxX, maxY, maxZ)) {
+            return;
+        }
+
+        if (x1 - x0 == 1 && z1 - z0 == 1) {
+            int cell = z0 * myCellsX + x0;
+            int[] ids = myCells[cell];
+            for (int i = 0; i < myCellSizes[cell]; i++) {
+                int id = ids[i];
+                if (myStamps[id] == query) {
+                    continue;
+                }
+                myStamps[id] = query;
+                int b = BOX_SIZE * id;
+                if (frustum.intersectsBox(myBoxes[b], myBoxes[b + 1], myBoxes[b + 2],
+                        myBoxes[b + 3], myBoxes[b + 4], myBoxes[b + 5])) {
+                    out.add(myObjects.get(id));
+                }
+            }
+            return;
+        }
+
+        int midX = (x0 + x1 + 1) / 2;
+        int midZ = (z0 + z1 + 1) / 2;
+        queryFrustum(frustum, query, x0, z0, midX, midZ, out);
+        queryFrustum(frustum, query, midX, z0, x1, midZ, out);
+        queryFrustum(frustum, query, x0, midZ, midX, z1, out);
+        queryFrustum(frustum, query, midX, midZ, x1, z1, out);
+    }
+
+    private int nextQuery() {
+        if (++myQuery == 0) {
+            // wrapped around, old stamps could match again
+            Arrays.fill(myStamps, 0);
+            myQuery = 1;
+        }
+        return myQuery;
+    }
+
+    private void setBox(int id, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        int b = BOX_SIZE * id;
+        myBoxes[b] = minX;
+        myBoxes[b + 1] = minY;
+        myBoxes[b + 2] = minZ;
+        myBoxes[b + 3] = maxX;
+        myBoxes[b + 4] = maxY;
+        myBoxes[b + 5] = maxZ;
+    }
+
+    private void insert(int id) {
+        int b = BOX_SIZE * id;
+        for (int i = 0; i < 3; i++) {
+            myBounds[i] = Math.min(myBounds[i], myBoxes[b + i]);
+            myBounds[i + 3] = Math.max(myBounds[i + 3], myBoxes[b + i + 3]);
+        }
+        for (int cz = cellZ(myBoxes[b + 2]); cz <= cellZ(myBoxes[b + 5]); cz++) {
+            for (int cx = cellX(myBoxes[b]); cx <= cellX(myBoxes[b + 3]); cx++) {
+                int cell = cz * myCellsX + cx;
+                int[] ids = myCells[cell];
+                if (ids == null) {
+                    ids = myCells[cell] = new int[4];
+                } else if (myCellSizes[cell] == ids.length) {
+                    ids = myCells[cell] = Arrays.copyOf(ids, 2 * ids.length);
+                }
+                ids[myCellSizes[cell]++] = id;
+                myCellMinY[cell] = Math.min(myCellMinY[cell], myBoxes[b + 1]);
+                myCellMaxY[cell] = Math.max(myCellMaxY[cell], myBoxes[b + 4]);
+            }
+        }
+    }
+
+    // the altitudes of a cell may stay a bit wider than needed, which is safe
+    private void remove(int id) {
+        int b = BOX_SIZE * id;
+        for (int cz = cellZ(myBoxes[b + 2]); cz <= cellZ(myBoxes[b + 5]); cz++) {
+            for (int cx = cellX(myBoxes[b]); cx <= cellX(myBoxes[b + 3]); cx++) {
+                int cell = cz * myCellsX + cx;
+                int[] ids = myCells[cell];
+                for (int i = 0; i < myCellSizes[cell]; i++) {
+                    if (ids[i] == id) {
+                        ids[i] = ids[--myCellSizes[cell]];
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private int cellX(double x) {
+        return (int) MathUtils.clamp(Math.floor((x - myMinX) / myCellSize), 0, myCellsX - 1);
+    }
+
+    private int cellZ(double z) {
+        return (int) MathUtils.clamp(Math.floor((z - myMinZ) / myCellSize), 0, myCellsZ - 1);
+    }
+}
@@ -1,14 +1,12 @@
 package ass2.spec;
 
-import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.GL2;
 
 import java.awt.*;
-import java.io.IOException;
-import java.nio.DoubleBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * COMMENT: Comment HeightMap 
@@ -17,12 +15,18 @@ import java.util.List;
  */
 public class Terrain {
 
-    private static final int STRIDE = 8;
     private static final String TEX_FILE_NAME = "grass1.png";
     private static final float[] AMBIENT = {0.6f, 0.6f, 0.6f, 1};
     private static final float[] DIFFUSE = {0.6f, 0.6f, 0.6f, 1};
     private static final float[] SPECULAR = {0.2f, 0.2f, 0.2f, 1};
     private static final float PHONG = 0.1f * 128;
+    private static final int PARALLEL_BATCH_SIZE = 4096;
+    // chunks built before they are uploaded, bounds the vertex data held at once
+    private static final int BAND_CHUNKS = 256;
+    // distance over which objects cross fade into their impostors
+    private static final double IMPOSTOR_FADE = 2;
+    // width and depth of a cell of the spatial indexes
+    private static final double INDEX_CELL_SIZE = 4;
 
     private Dimension mySize;
     private double[][] myAltitude;
@@ -30,16 +34,46 @@ public class Terrain {
     private List<Road> myRoads;
     private float[] mySunlight;
     private List<Enemy> myEnemies;
-
-    private double[] vertices;
-    private double[] normals;
-    private double[] texCoords;
-    private short[] indexes;
-
-    private int[] myBufferIds = new int[4];
+    // the objects by position, ids are their indexes in the lists above
+    private SpatialGrid<Tree> myTreeIndex;
+    private SpatialGrid<Road> myRoadIndex;
+    private SpatialGrid<Enemy> myEnemyIndex;
+    // objects found in the view frustum
+    private List<Tree> myFoundTrees = new ArrayList<>();
+    private List<Road> myFoundRoads = new ArrayList<>();
+    private List<Enemy> myFoundEnemies = new ArrayList<>();
+
+    private List<TerrainChunk> myChunks;
+    // number of chunks in the x direction
+    private int myChunksX;
+    private boolean levelOfDetail = false;
+    private TerrainLod myLod;
+    // level of detail of every chunk in the current frame
+    private int[] myLevels;
+    private CullStats myCullStats = new CullStats();
+    // times the parts of drawAll(), off unless enabled
+    private FrameTimer myTimer = new FrameTimer();
+    // every tree is drawn from the same mesh
+    private TreeMesh myTreeMesh = new TreeMesh();
+    private List<Tree> myVisibleTrees = new ArrayList<>();
+    // and every enemy from the same model
+    private EnemyMesh myEnemyMesh = new EnemyMesh();
+    private List<Enemy> myVisibleEnemies = new ArrayList<>();
+    // all roads are baked into one buffer
+    private RoadMesh myRoadMesh = new RoadMesh();
+    // how far the drawn roads may be from their curves
+    private double myRoadTolerance = Road.DEFAULT_TOLERANCE;
+    // trees and enemies further away than this are drawn as impostors, 0 for never
+    private double myImpostorDistance = 0;
+    private Impostor myTreeImpostor;
+    private Impostor myEnemyImpostor;
+    private boolean smoothNormals = false;
+    // picked for the context by init(), COMPACT until then
+    private VertexFormat myFormat = VertexFormat.COMPACT;
 
     private MyTexture myTexture;
-    private int shaderProgram;
+    private ShaderProgram shaderProgram;
+    private int texUnit;
 
     /**
      * Create a new terrain
@@ -54,6 +88,10 @@ public class Terrain {
         myRoads = new ArrayList<Road>();
         mySunlight = new float[3];
         myEnemies = new ArrayList<>();
+        myChunks = new ArrayList<>();
+        myTreeIndex = new SpatialGrid<>(0, 0, width - 1, depth - 1, INDEX_CELL_SIZE);
+        myRoadIndex = new SpatialGrid<>(0, 0, width - 1, depth - 1, INDEX_CELL_SIZE);
+        myEnemyIndex = new SpatialGrid<>(0, 0, width - 1, depth - 1, INDEX_CELL_SIZE);
     }
     
     public Terrain(Dimension size) {
@@ -68,10 +106,29 @@ public class Terrain {
         return myTrees;
     }
 
+    // trees by position
+    public SpatialGrid<Tree> treeIndex() {
+        return myTreeIndex;
+    }
+
+    // roads by position, their altitudes are known once the roads are built
+    public SpatialGrid<Road> roadIndex() {
+        return myRoadIndex;
+    }
+
+    // enemies by position
+    public SpatialGrid<Enemy> enemyIndex() {
+        return myEnemyIndex;
+    }
+
     public List<Road> roads() {
         return myRoads;
     }
 
+    public List<Enemy> enemies() {
+        return myEnemies;
+    }
+
     public float[] getSunlight() {
         return mySunlight;
     }
@@ -135,7 +192,9 @@ public class Terrain {
      * Get the altitude at an arbitrary point. 
      * Non-integer points should be interpolated from neighbouring grid points
      * 
-     * TO BE COMPLETED
+     * Each grid cell is split into a top left and a bottom right triangle,
+     * the point is interpolated on the plane of the triangle it falls in.
+     * Works on primitives only so it is cheap to call in tight loops.
      * 
      * @param x
      * @param z
@@ -150,57 +209,132 @@ public class Terrain {
         int x2 = (int) Math.ceil(x);
         int z1 = (int) Math.floor(z);
         int z2 = (int) Math.ceil(z);
-        double[] p = {x, z};
-        double[] tl = {x1, z1};
-        double[] br = {x2, z2};
-        if (MathUtils.dist(p, tl) < MathUtils.dist(p, br)) {
-            // top left triangle
-            double[] p1 = {x1, myAltitude[x1][z2], z2};
-            double[] p2 = {x1, myAltitude[x1][z1], z1};
-            double[] p3 = {x2, myAltitude[x2][z1], z1};
-            double[] q1;
-            double[] q2;
+
+        // compare squared distances to the top left and bottom right corners
+        double dx1 = x - x1;
+        double dz1 = z - z1;
+        double dx2 = x - x2;
+        double dz2 = z - z2;
+        if (dx1 * dx1 + dz1 * dz1 < dx2 * dx2 + dz2 * dz2) {
+            // top left triangle, p1 = (x1, z2), p2 = (x1, z1), p3 = (x2, z1)
+            double h1 = myAltitude[x1][z2];
+            double h2 = myAltitude[x1][z1];
+            double h3 = myAltitude[x2][z1];
             // first interpolate between (p1, p2) and (p1, p3), get q1 and q2
-            if (z1 == z2) {
-                // point is on the top line (avoid divide by zero in the else section)
-                q1 = p2;
-                q2 = p3;
-            } else {
-                q1 = MathUtils.lerp(p1, p2, (z2 - z) / (z2 - z1));
-                q2 = MathUtils.lerp(p1, p3, (z2 - z) / (z2 - z1));
+            double q1 = h2;
+            double q2x = x2;
+            double q2 = h3;
+            if (z1 != z2) {
+                double f = (z2 - z) / (z2 - z1);
+                q1 = h1 + f * (h2 - h1);
+                q2x = x1 + f * (x2 - x1);
+                q2 = h1 + f * (h3 - h1);
             }
             // then interpolate between (q1, q2)
-            double[] r;
-            if (q2[0] == x1) {
-                r = q2;
-            } else {
-                r = MathUtils.lerp(q1, q2, (x - x1) / (q2[0] - x1));
+            if (q2x == x1) {
+                return q2;
             }
-            return r[1];
+            return q1 + (x - x1) / (q2x - x1) * (q2 - q1);
         } else {
-            // bottom right triangle, process is the same as above
-            double[] p1 = {x2, myAltitude[x2][z1], z1};
-            double[] p2 = {x1, myAltitude[x1][z2], z2};
-            double[] p3 = {x2, myAltitude[x2][z2], z2};
-            double[] q1;
-            double[] q2;
-            if (z1 == z2) {
-                q1 = p2;
-                q2 = p3;
-            } else {
-                q1 = MathUtils.lerp(p1, p2, (z - z1) / (z2 - z1));
-                q2 = MathUtils.lerp(p1, p3, (z - z1) / (z2 - z1));
+            // bottom right triangle, p1 = (x2, z1), p2 = (x1, z2), p3 = (x2, z2)
+            double h1 = myAltitude[x2][z1];
+            double h2 = myAltitude[x1][z2];
+            double h3 = myAltitude[x2][z2];
+            double q1x = x1;
+            double q1 = h2;
+            double q2 = h3;
+            if (z1 != z2) {
+                double f = (z - z1) / (z2 - z1);
+                q1x = x2 + f * (x1 - x2);
+                q1 = h1 + f * (h2 - h1);
+                q2 = h1 + f * (h3 - h1);
             }
-            double[] r;
-            if (x2 == q1[0]) {
-                r = q1;
-            } else {
-                r = MathUtils.lerp(q1, q2, (x - q1[0]) / (x2 - q1[0]));
+            if (x2 == q1x) {
+                return q1;
             }
-            return r[1];
+            return q1 + (x - q1x) / (x2 - q1x) * (q2 - q1);
         }
     }
 
+    /**
+     * Get the altitudes of n points at once, out[i] is the altitude at (xs[i], zs[i]).
+     * Large batches are split across the common fork join pool.
+     * 
+     * @param xs
+     * @param zs
+     * @param out
+     * @param n
+     */
+    public void altitudes(double[] xs, double[] zs, double[] out, int n) {
+        if (n < PARALLEL_BATCH_SIZE) {
+            altitudes(xs, zs, out, 0, n);
+            return;
+        }
+        int batches = (n + PARALLEL_BATCH_SIZE - 1) / PARALLEL_BATCH_SIZE;
+        IntStream.range(0, batches).parallel().forEach(b -> {
+            int from = b * PARALLEL_BATCH_SIZE;
+            altitudes(xs, zs, out, from, Math.min(n, from + PARALLEL_BATCH_SIZE));
+        });
+    }
+
+    private void altitudes(double[] xs, double[] zs, double[] out, int from, int to) {
+        for (int i = from; i < to; i++) {
+            out[i] = altitude(xs[i], zs[i]);
+        }
+    }
+
+    /**
+     * Get the smooth normal at a grid point, the sum of the normals of the (up to 6)
+     * triangles around it weighted by their area.
+     * 
+     * @param x
+     * @param z
+     * @param n receives the normalized result
+     */
+    public void vertexNormal(int x, int z, double[] n) {
+        int lastX = mySize.width - 2;
+        int lastZ = mySize.height - 2;
+        double nx = 0;
+        double nz = 0;
+        int faces = 0;
+
+        // every triangle has the same area projected on the xz plane, so the y of the
+        // cross product is always 1 and only x and z vary with the slope
+        if (x <= lastX && z <= lastZ) {
+            // top left triangle of cell (x, z)
+            nx -= myAltitude[x + 1][z] - myAltitude[x][z];
+            nz -= myAltitude[x][z + 1] - myAltitude[x][z];
+            faces++;
+        }
+        if (x >= 1 && z <= lastZ) {
+            // both triangles of cell (x - 1, z)
+            nx -= myAltitude[x][z] - myAltitude[x - 1][z];
+            nz -= myAltitude[x - 1][z + 1] - myAltitude[x - 1][z];
+            nx += myAltitude[x - 1][z + 1] - myAltitude[x][z + 1];
+            nz += myAltitude[x][z] - myAltitude[x][z + 1];
+            faces += 2;
+        }
+        if (x <= lastX && z >= 1) {
+            // both triangles of cell (x, z - 1)
+            nx -= myAltitude[x + 1][z - 1] - myAltitude[x][z - 1];
+            nz -= myAltitude[x][z] - myAltitude[x][z - 1];
+            nx += myAltitude[x][z] - myAltitude[x + 1][z];
+            nz += myAltitude[x + 1][z - 1] - myAltitude[x + 1][z];
+            faces += 2;
+        }
+        if (x >= 1 && z >= 1) {
+            // bottom right triangle of cell (x - 1, z - 1)
+            nx += myAltitude[x - 1][z] - myAltitude[x][z];
+            nz += myAltitude[x][z - 1] - myAltitude[x][z];
+            faces++;
+        }
+
+        n[0] = nx;
+        n[1] = faces;
+        n[2] = nz;
+        MathUtils.normalize(n);
+    }
+
     /**
      * Add a tree at the specified (x,z) point. 
      * The tree's y coordinate is calculated from the altitude of the terrain at that point.
@@ -212,12 +346,17 @@ public class Terrain {
         double y = altitude(x, z);
         Tree tree = new Tree(x, y, z);
         myTrees.add(tree);
+        double r = Tree.SPHERE_RADIUS;
+        myTreeIndex.add(tree, x - r, y, z - r, x + r, y + Tree.HEIGHT + 2 * r, z + r);
     }
 
 
     public void addRoad(double width, double[] spine) {
         Road road = new Road(width, spine);
         myRoads.add(road);        
+        double[] min = road.getMin();
+        double[] max = road.getMax();
+        myRoadIndex.add(road, min[0], min[1], min[2], max[0], max[1], max[2]);
     }
 
     public void addEnemy(double x, double z, double rotation, double scale) {
@@ -227,253 +366,428 @@ public class Terrain {
         enemy.setTranslation(new double[] {x, y, z});
         enemy.getRotation()[1] = rotation;
         enemy.setScale(scale);
+        addEnemy(enemy);
+    }
+
+    /**
+     * Add an enemy that is already placed, as a binary level stores them.
+     *
+     * @param enemy
+     */
+    public void addEnemy(Enemy enemy) {
         myEnemies.add(enemy);
+        // the size of the model is only known once it is loaded, see initAll()
+        indexEnemy(myEnemies.size() - 1, enemy.getScale());
+    }
+
+    private void indexEnemy(int id, double radius) {
+        Enemy enemy = myEnemies.get(id);
+        double[] t = enemy.getTranslation();
+        if (id == myEnemyIndex.size()) {
+            myEnemyIndex.add(enemy, t[0] - radius, t[1] - radius, t[2] - radius,
+                    t[0] + radius, t[1] + radius, t[2] + radius);
+        } else {
+            myEnemyIndex.move(id, t[0] - radius, t[1] - radius, t[2] - radius,
+                    t[0] + radius, t[1] + radius, t[2] + radius);
+        }
     }
 
     public void initAll(GL2 gl) {
         init(gl);
 
-        for (Tree tree : trees()) {
-            tree.init(gl);
+        myTreeMesh.init(gl);
+
+        buildRoads();
+        myRoadMesh.init(gl, roads());
+
+        if (!myEnemies.isEmpty()) {
+            myEnemyMesh.init(gl);
+        }
+        for (int i = 0; i < myEnemies.size(); i++) {
+            Enemy enemy = myEnemies.get(i);
+            enemy.init(myEnemyMesh);
+            indexEnemy(i, enemy.getRadius() * enemy.getScale());
         }
 
-        for (Road road : roads()) {
-            road.init(gl, this);
+        if (myImpostorDistance > 0) {
+            initImpostors(gl);
         }
+    }
 
-        for (Enemy enemy : myEnemies) {
-            enemy.init(gl);
+    private void initImpostors(GL2 gl) {
+        List<Tree> origin = Collections.singletonList(new Tree(0, 0, 0));
+        double halfHeight = (Tree.HEIGHT + 2 * Tree.SPHERE_RADIUS) / 2;
+        myTreeImpostor = new Impostor();
+        myTreeImpostor.init(gl, g -> myTreeMesh.draw(g, origin), halfHeight, halfHeight);
+
+        if (!myEnemies.isEmpty()) {
+            List<Enemy> enemy = Collections.singletonList(new Enemy());
+            myEnemyImpostor = new Impostor();
+            myEnemyImpostor.init(gl, g -> myEnemyMesh.draw(g, enemy), 0, myEnemyMesh.getRadius());
         }
     }
 
-    public void drawAll(GL2 gl) {
-        draw(gl);
+    /**
+     * Free the GPU resources of the terrain and everything on it.
+     * 
+     * @param gl
+     */
+    public void releaseAll(GL2 gl) {
+        for (TerrainChunk chunk : myChunks) {
+            chunk.release(gl);
+        }
+        if (myLod != null) {
+            myLod.release(gl);
+        }
+        TextureCache.release(gl, myTexture);
+        myTexture = null;
+        ShaderCache.release(gl, shaderProgram);
+        shaderProgram = null;
+
+        myTreeMesh.release(gl);
 
-        for (Tree tree : trees()) {
-            tree.draw(gl);
+        myRoadMesh.release(gl);
+
+        myEnemyMesh.release(gl);
+
+        if (myTreeImpostor != null) {
+            myTreeImpostor.release(gl);
+            myTreeImpostor = null;
+        }
+        if (myEnemyImpostor != null) {
+            myEnemyImpostor.release(gl);
+            myEnemyImpostor = null;
         }
+    }
 
-        for (Road road : roads()) {
-            road.draw(gl);
+    /**
+     * Draw the terrain and everything on it that is inside the view frustum.
+     * 
+     * @param gl
+     * @param frustum the view frustum, or null to draw everything
+     * @param eye position of the viewer for the level of detail, or null for full detail
+     */
+    public void drawAll(GL2 gl, Frustum frustum, double[] eye) {
+        myCullStats.reset();
+
+        myTimer.begin(gl, FrameTimer.Stage.TERRAIN);
+        draw(gl, frustum, eye);
+        myTimer.end(gl, FrameTimer.Stage.TERRAIN);
+
+        myTimer.begin(gl, FrameTimer.Stage.TREES);
+        List<Tree> trees = myTrees;
+        if (frustum != null) {
+            myFoundTrees.clear();
+            myTreeIndex.queryFrustum(frustum, myFoundTrees);
+            trees = myFoundTrees;
+            myCullStats.culled(CullStats.Kind.TREE, myTrees.size() - trees.size());
+        }
+        myVisibleTrees.clear();
+        for (Tree tree : trees) {
+            myCullStats.drawn(CullStats.Kind.TREE);
+            double d = myTreeImpostor == null || eye == null ? 0 : distance(tree.getPosition(), eye);
+            if (d < myImpostorDistance + IMPOSTOR_FADE) {
+                myVisibleTrees.add(tree);
+            }
+            if (d > myImpostorDistance) {
+                myTreeImpostor.add(tree.getPosition(), 0, 1, eye, impostorFade(d));
+            }
+        }
+        myTreeMesh.draw(gl, myVisibleTrees);
+        myTimer.end(gl, FrameTimer.Stage.TREES);
+
+        myTimer.begin(gl, FrameTimer.Stage.ROADS);
+        List<Road> roads = myRoads;
+        if (frustum != null) {
+            myFoundRoads.clear();
+            myRoadIndex.queryFrustum(frustum, myFoundRoads);
+            roads = myFoundRoads;
+            myCullStats.culled(CullStats.Kind.ROAD, myRoads.size() - roads.size());
+        }
+        for (Road road : roads) {
+            myCullStats.drawn(CullStats.Kind.ROAD);
+            myRoadMesh.add(road);
+        }
+        myRoadMesh.draw(gl);
+        myTimer.end(gl, FrameTimer.Stage.ROADS);
+
+        myTimer.begin(gl, FrameTimer.Stage.ENEMIES);
+        List<Enemy> enemies = myEnemies;
+        if (frustum != null) {
+            myFoundEnemies.clear();
+            myEnemyIndex.queryFrustum(frustum, myFoundEnemies);
+            enemies = myFoundEnemies;
+            myCullStats.culled(CullStats.Kind.ENEMY, myEnemies.size() - enemies.size());
+        }
+        myVisibleEnemies.clear();
+        for (Enemy enemy : enemies) {
+            myCullStats.drawn(CullStats.Kind.ENEMY);
+            double d = myEnemyImpostor == null || eye == null ? 0 : distance(enemy.getTranslation(), eye);
+            if (d < myImpostorDistance + IMPOSTOR_FADE) {
+                myVisibleEnemies.add(enemy);
+            }
+            if (d > myImpostorDistance) {
+                myEnemyImpostor.add(enemy.getTranslation(), enemy.getRotation()[1], enemy.getScale(), eye,
+                        impostorFade(d));
+            }
         }
+        myEnemyMesh.draw(gl, myVisibleEnemies);
+        myTimer.end(gl, FrameTimer.Stage.ENEMIES);
 
-        for (Enemy enemy : myEnemies) {
-            enemy.draw(gl);
+        // blended, so after everything solid
+        myTimer.begin(gl, FrameTimer.Stage.IMPOSTORS);
+        if (myTreeImpostor != null) {
+            myTreeImpostor.draw(gl);
+        }
+        if (myEnemyImpostor != null) {
+            myEnemyImpostor.draw(gl);
         }
+        myTimer.end(gl, FrameTimer.Stage.IMPOSTORS);
     }
 
-    private void init(GL2 gl) {
-        initVerticesAndTexCoords();
-        initNormalsAndIndexes();
+    // opacity of an impostor at a distance, it fades in while the real object is still drawn
+    private double impostorFade(double distance) {
+        return MathUtils.clamp((distance - myImpostorDistance) / IMPOSTOR_FADE, 0, 1);
+    }
 
-        // cannot share vertex if we want to use face normals
-        // construct another array to put all vertex positions, normals, texture coordinates
+    private static double distance(double[] a, double[] b) {
+        double dx = a[0] - b[0];
+        double dy = a[1] - b[1];
+        double dz = a[2] - b[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
 
-        double[] data = new double[8 * indexes.length];
+    public double getImpostorDistance() {
+        return myImpostorDistance;
+    }
 
-        try {
-            for (int i = 0; i < indexes.length; i++) {
-                double[] vertex = getVertex(indexes[i]);
-                double[] normal = getNormal(i / 3);
-                double[] texCoord = getTexCoord(indexes[i]);
+    /**
+     * Draw trees and enemies further away than a distance as flat impostors.
+     * Has to be set before initAll().
+     *
+     * @param distance 0 to always draw the real objects
+     */
+    public void setImpostorDistance(double distance) {
+        myImpostorDistance = distance;
+    }
 
-                int j = 8 * i;
+    public double getRoadTolerance() {
+        return myRoadTolerance;
+    }
 
-                data[j] = vertex[0];
-                data[j + 1] = vertex[1];
-                data[j + 2] = vertex[2];
+    /**
+     * Set how far the edges of the drawn roads may be from the real curves, in world
+     * units. Smaller values give smoother roads with more triangles. Has to be set
+     * before initAll().
+     *
+     * @param tolerance
+     */
+    public void setRoadTolerance(double tolerance) {
+        myRoadTolerance = tolerance;
+    }
 
-                data[j + 3] = normal[0];
-                data[j + 4] = normal[1];
-                data[j + 5] = normal[2];
+    public FrameTimer getFrameTimer() {
+        return myTimer;
+    }
 
-                data[j + 6] = texCoord[0];
-                data[j + 7] = texCoord[1];
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.exit(0);
-        }
+    // time the parts of drawAll() with this timer
+    public void setFrameTimer(FrameTimer timer) {
+        myTimer = timer;
+    }
 
-        gl.glGenBuffers(2, myBufferIds, 0);
+    // counts of the last drawAll()
+    public CullStats getCullStats() {
+        return myCullStats;
+    }
 
-        DoubleBuffer dataBuffer = Buffers.newDirectDoubleBuffer(data);
-        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
-        gl.glBufferData(GL2.GL_ARRAY_BUFFER, data.length * Double.BYTES, dataBuffer, GL2.GL_STATIC_DRAW);
+    private void init(GL2 gl) {
+        myFormat = VertexFormat.forContext(gl);
+        buildChunks(gl);
 
-//        ShortBuffer indexesBuffer = Buffers.newDirectShortBuffer(indexes);
-//        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, myBufferIds[1]);
-//        gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, indexes.length * Short.BYTES, indexesBuffer, GL2.GL_STATIC_DRAW);
+        if (levelOfDetail && smoothNormals) {
+            myLod = new TerrainLod();
+            myLevels = new int[myChunks.size()];
+        }
 
-        myTexture = new MyTexture(gl, TEX_FILE_NAME);
+        myTexture = TextureCache.get(gl, TEX_FILE_NAME);
 
         try {
-            shaderProgram = Shader.initShaders(gl, "/shader/per_pixel_vshader.glsl", "/shader/per_pixel_fshader.glsl");
+            shaderProgram = ShaderCache.get(gl, "/shader/per_pixel_vshader.glsl", "/shader/per_pixel_fshader.glsl");
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(0);
         }
+
+        texUnit = shaderProgram.uniform("texUnit");
+    }
+
+    /**
+     * Split the grid into chunks, generate their meshes and upload them. Bands of whole
+     * rows of chunks are built in parallel on the common fork join pool, and each band is
+     * uploaded before the next one is built, so only one band of vertex data is held in
+     * direct memory however big the terrain is.
+     *
+     * @param gl to upload with, or null to only build them and drop the data
+     */
+    public void buildChunks(GL2 gl) {
+        buildChunks(gl, true);
+    }
+
+    void buildChunks(GL2 gl, boolean parallel) {
+        if (gl != null) {
+            for (TerrainChunk chunk : myChunks) {
+                chunk.release(gl);
+            }
+        }
+
+        // split the grid into chunks so that indexes stay local and small
+        myChunks = new ArrayList<>();
+        int cellsX = mySize.width - 1;
+        int cellsZ = mySize.height - 1;
+        myChunksX = (cellsX + TerrainChunk.SIZE - 1) / TerrainChunk.SIZE;
+        for (int z = 0; z < cellsZ; z += TerrainChunk.SIZE) {
+            for (int x = 0; x < cellsX; x += TerrainChunk.SIZE) {
+                int width = Math.min(TerrainChunk.SIZE, cellsX - x);
+                int depth = Math.min(TerrainChunk.SIZE, cellsZ - z);
+                myChunks.add(new TerrainChunk(this, x, z, width, depth));
+            }
+        }
+
+        int band = myChunksX * Math.max(1, BAND_CHUNKS / Math.max(1, myChunksX));
+        for (int first = 0; first < myChunks.size(); first += band) {
+            int last = Math.min(first + band, myChunks.size());
+            IntStream chunks = IntStream.range(first, last);
+            if (parallel) {
+                chunks = chunks.parallel();
+            }
+            chunks.forEach(i -> myChunks.get(i).build());
+
+            // GL calls stay on this thread
+            for (int i = first; i < last; i++) {
+                if (gl != null) {
+                    myChunks.get(i).upload(gl);
+                } else {
+                    myChunks.get(i).discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * Lay all roads onto the terrain, in parallel on the common fork join pool.
+     * The result is uploaded by initAll().
+     */
+    public void buildRoads() {
+        myRoads.parallelStream().forEach(road -> road.init(this));
+        for (int i = 0; i < myRoads.size(); i++) {
+            double[] min = myRoads.get(i).getMin();
+            double[] max = myRoads.get(i).getMax();
+            myRoadIndex.move(i, min[0], min[1], min[2], max[0], max[1], max[2]);
+        }
     }
 
-    private void draw(GL2 gl) {
+    private void draw(GL2 gl, Frustum frustum, double[] eye) {
+        boolean lod = myLod != null && eye != null;
+        if (lod) {
+            // all levels first, a chunk's edges depend on its neighbours
+            for (int i = 0; i < myChunks.size(); i++) {
+                TerrainChunk chunk = myChunks.get(i);
+                int maxLevel = TerrainLod.maxLevel(chunk.getWidth(), chunk.getDepth());
+                myLevels[i] = TerrainLod.level(chunk.distance(eye), maxLevel);
+            }
+        }
+
         gl.glBindTexture(GL2.GL_TEXTURE_2D, myTexture.getTextureId());
 
-        gl.glUseProgram(shaderProgram);
-        gl.glUniform1i(gl.glGetUniformLocation(shaderProgram, "texUnit"), 0);
+        gl.glUseProgram(shaderProgram.getID());
+        gl.glUniform1i(texUnit, 0);
 
         gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, AMBIENT, 0);
         gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, DIFFUSE, 0);
         gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, SPECULAR, 0);
         gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, PHONG);
 
-        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
-        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
-        gl.glVertexPointer(3, GL2.GL_DOUBLE, 8 * Double.BYTES, 0);
-
-        gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-        gl.glNormalPointer(GL2.GL_DOUBLE, 8 * Double.BYTES, 3 * Double.BYTES);
-
-        gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-        gl.glTexCoordPointer(2, GL2.GL_DOUBLE, 8 * Double.BYTES, 6 * Double.BYTES);
+        myFormat.enable(gl);
 
-        //gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, myBufferIds[1]);
-
-        //gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_LINE);
-        //gl.glDrawElements(GL2.GL_TRIANGLES, indexes.length, GL2.GL_UNSIGNED_SHORT, 0);
-        gl.glDrawArrays(GL2.GL_TRIANGLES, 0, indexes.length);
-        //gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_FILL);
+        for (int i = 0; i < myChunks.size(); i++) {
+            TerrainChunk chunk = myChunks.get(i);
+            if (frustum != null && !chunk.intersects(frustum)) {
+                myCullStats.culled(CullStats.Kind.CHUNK);
+                continue;
+            }
+            myCullStats.drawn(CullStats.Kind.CHUNK);
+            if (lod) {
+                drawLod(gl, i);
+            } else {
+                chunk.draw(gl);
+            }
+        }
 
-        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
-        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
-        gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        myFormat.disable(gl);
 
         gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
-        //gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
         gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
 
         gl.glUseProgram(0);
-
-        // just for debug
-//        gl.glDisable(GL2.GL_TEXTURE_2D);
-//        gl.glDisable(GL2.GL_LIGHTING);
-//        gl.glColor3d(1, 0, 0);
-//        gl.glBegin(GL2.GL_LINES);
-//        for (int i = 0; i < indexes.length; i += 1) {
-//            double[] v = getVertex(indexes[i]);
-//            double[] normal = getNormal(i/3);
-//            gl.glVertex3dv(v, 0);
-//            MathUtils.mult(normal, 0.3);
-//            MathUtils.add(v, normal);
-//            gl.glVertex3dv(v, 0);
-//        }
-//        gl.glEnd();
-//        gl.glEnable(GL2.GL_TEXTURE_2D);
-//        gl.glEnable(GL2.GL_LIGHTING);
-    }
-
-    // number of triangles
-    public int meshSize() {
-        return 2 * (mySize.width - 1) * (mySize.height - 1);
-    }
-
-    // number of vertices
-    private int vertexSize() {
-        return mySize.width * mySize.height;
     }
 
-    private double[] getVertex(int i) {
-        return Arrays.copyOfRange(vertices, 3 * i, 3 * (i + 1));
+    public boolean isSmoothNormals() {
+        return smoothNormals;
     }
 
-    private void setVertex(int i, double[] v) {
-        assert v.length == 3;
-        int b = 3 * i;
-        vertices[b] = v[0];
-        vertices[b + 1] = v[1];
-        vertices[b + 2] = v[2];
+    /**
+     * Use shared vertices with smooth per vertex normals instead of face normals.
+     * Has to be set before the terrain is initialised.
+     * 
+     * @param smoothNormals
+     */
+    public void setSmoothNormals(boolean smoothNormals) {
+        this.smoothNormals = smoothNormals;
     }
 
-    private double[] getNormal(int i) {
-        return Arrays.copyOfRange(normals, 3 * i, 3 * (i + 1));
+    // layout of the terrain vertex buffers
+    public VertexFormat getVertexFormat() {
+        return myFormat;
     }
 
-    private void setNormal(int i, double[] n) {
-        assert n.length == 3;
-        int b = 3 * i;
-        normals[b] = n[0];
-        normals[b + 1] = n[1];
-        normals[b + 2] = n[2];
+    // draw chunk i with its edges at the coarser level of itself and each neighbour
+    private void drawLod(GL2 gl, int i) {
+        TerrainChunk chunk = myChunks.get(i);
+        int level = myLevels[i];
+        int cx = i % myChunksX;
+        int north = i >= myChunksX ? myLevels[i - myChunksX] : level;
+        int south = i + myChunksX < myLevels.length ? myLevels[i + myChunksX] : level;
+        int west = cx > 0 ? myLevels[i - 1] : level;
+        int east = cx < myChunksX - 1 ? myLevels[i + 1] : level;
+        int[] indexes = myLod.indexBuffer(gl, chunk.getWidth(), chunk.getDepth(), level,
+                Math.max(level, north), Math.max(level, south), Math.max(level, west), Math.max(level, east));
+        chunk.draw(gl, indexes[0], indexes[1]);
     }
 
-    private double[] getTexCoord(int i) {
-        return Arrays.copyOfRange(texCoords, 2 * i, 2 * (i + 1));
+    public boolean isLevelOfDetail() {
+        return levelOfDetail;
     }
 
-    private void setTexCoord(int i, double[] t) {
-        assert t.length == 2;
-        int b = 2 * i;
-        normals[b] = t[0];
-        normals[b + 1] = t[1];
+    /**
+     * Draw chunks further away from the viewer with fewer triangles. Only works
+     * with smooth normals. Has to be set before the terrain is initialised.
+     * 
+     * @param levelOfDetail
+     */
+    public void setLevelOfDetail(boolean levelOfDetail) {
+        this.levelOfDetail = levelOfDetail;
     }
 
-    private void initVerticesAndTexCoords() {
-        vertices = new double[3 * vertexSize()];
-        texCoords = new double[2 * vertexSize()];
-
-        int width = mySize.width;
-        int height = mySize.height;
-
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                int a = 3 * (i * width + j);
-                vertices[a] = j;
-                vertices[a + 1] = myAltitude[j][i];
-                vertices[a + 2] = i;
-
-                int b = 2 * (i * width + j);
-                texCoords[b] = j;
-                texCoords[b + 1] = i;
-            }
-        }
+    public List<TerrainChunk> chunks() {
+        return myChunks;
     }
 
-    private void initNormalsAndIndexes() {
-        normals = new double[3 * meshSize()];
-        indexes = new short[3 * meshSize()];
-
-        int width = mySize.width;
-        int height = mySize.height;
-
-        for (int i = 0; i < height - 1; i++) {
-            for (int j = 0; j < width - 1; j++) {
-                int k1 = i * width + j;
-                int k2 = (i + 1) * width + j;
-                int k3 = (i + 1) * width + j + 1;
-                int k4 = i * width + j + 1;
-
-                double[] n1 =  MathUtils.getNormal(getVertex(k1), getVertex(k2), getVertex(k4));
-                double[] n2 =  MathUtils.getNormal(getVertex(k2), getVertex(k3), getVertex(k4));
-
-                int a = 2 * (i * (width - 1) + j);
-
-                setNormal(a, n1);
-                setNormal(a + 1, n2);
-
-                int b = 3 * a;
-
-                indexes[b] = (short) k1;
-                indexes[b + 1] = (short) k2;
-                indexes[b + 2] = (short) k4;
-                indexes[b + 3] = (short) k2;
-                indexes[b + 4] = (short) k3;
-                indexes[b + 5] = (short) k4;
-            }
-        }
+    // number of triangles
+    public int meshSize() {
+        return 2 * (mySize.width - 1) * (mySize.height - 1);
     }
 
     public void toggleUseNormalMap() {
-        for (Tree tree : trees()) {
-            tree.setUseNormalMap(!tree.getUseNormalMap());
-        }
+        myTreeMesh.setUseNormalMap(!myTreeMesh.getUseNormalMap());
     }
 }
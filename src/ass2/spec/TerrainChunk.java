@@ -0,0 +1,314 @@
+package ass2.spec;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A rectangular block of at most SIZE x SIZE terrain cells with its own vertex buffer.
+ *
+ * Indexes are local to the chunk, so they always fit in a short no matter how big the
+ * whole terrain is, and every chunk can be rebuilt or released on its own.
+ */
+public class TerrainChunk {
+
+    // number of cells along each side of a full chunk, (SIZE + 1)^2 must fit in an unsigned short
+    public static final int SIZE = 32;
+
+    private Terrain myTerrain;
+
+    // grid coordinates of the first vertex
+    private int myX;
+    private int myZ;
+
+    // number of cells in the x and z direction
+    private int myWidth;
+    private int myDepth;
+
+    // altitude range, for the bounding box
+    private double myMinY;
+    private double myMaxY;
+
+    private short[] indexes;
+    // vertex data waiting to be uploaded, texture coordinates are relative to the chunk
+    // so they stay small enough for half floats, the texture repeats every unit anyway
+    private ByteBuffer data;
+
+    private VertexFormat myFormat;
+    private boolean smooth;
+    private int[] myBufferIds = new int[2];
+    // number of vertices in the vertex buffer and passed to the draw call
+    private int myBufferSize;
+    private int myVertexCount;
+
+    public TerrainChunk(Terrain terrain, int x, int z, int width, int depth) {
+        myTerrain = terrain;
+        myX = x;
+        myZ = z;
+        myWidth = width;
+        myDepth = depth;
+    }
+
+    public int getX() {
+        return myX;
+    }
+
+    public int getZ() {
+        return myZ;
+    }
+
+    public int getWidth() {
+        return myWidth;
+    }
+
+    public int getDepth() {
+        return myDepth;
+    }
+
+    // distance from a point to the bounding box
+    public double distance(double[] p) {
+        double dx = p[0] - MathUtils.clamp(p[0], myX, myX + myWidth);
+        double dy = p[1] - MathUtils.clamp(p[1], myMinY, myMaxY);
+        double dz = p[2] - MathUtils.clamp(p[2], myZ, myZ + myDepth);
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public boolean intersects(Frustum frustum) {
+        return frustum.intersectsBox(myX, myMinY, myZ, myX + myWidth, myMaxY, myZ + myDepth);
+    }
+
+    /**
+     * Generate the vertex data of this chunk. Only reads the heightfield and writes
+     * straight into the vertex buffer, no GL calls and no allocation per vertex, so
+     * different chunks can be built on different threads.
+     */
+    public void build() {
+        myFormat = myTerrain.getVertexFormat();
+        smooth = myTerrain.isSmoothNormals();
+
+        initBounds();
+        if (smooth) {
+            buildShared();
+        } else {
+            buildFaceted();
+        }
+    }
+
+    // every vertex is shared by up to 6 triangles and drawn through the index buffer
+    private void buildShared() {
+        int width = myWidth + 1;
+        int count = vertexSize();
+        ByteBuffer buffer = allocate(count);
+        double[] n = new double[3];
+
+        for (int i = 0; i <= myDepth; i++) {
+            for (int j = 0; j <= myWidth; j++) {
+                int x = myX + j;
+                int z = myZ + i;
+                // neighbours outside the chunk are used too so there is no seam between chunks
+                myTerrain.vertexNormal(x, z, n);
+                myFormat.put(buffer, count, i * width + j,
+                        x, myTerrain.getGridAltitude(x, z), z,
+                        n[0], n[1], n[2],
+                        j, i);
+            }
+        }
+
+        initIndexes();
+        myBufferSize = count;
+        myVertexCount = indexes.length;
+    }
+
+    // cannot share vertex if we want to use face normals, every triangle gets its own 3 vertices
+    private void buildFaceted() {
+        int count = 3 * meshSize();
+        ByteBuffer buffer = allocate(count);
+        int k = 0;
+
+        for (int i = 0; i < myDepth; i++) {
+            for (int j = 0; j < myWidth; j++) {
+                int x = myX + j;
+                int z = myZ + i;
+                double h1 = myTerrain.getGridAltitude(x, z);
+                double h2 = myTerrain.getGridAltitude(x, z + 1);
+                double h3 = myTerrain.getGridAltitude(x + 1, z + 1);
+                double h4 = myTerrain.getGridAltitude(x + 1, z);
+
+                // top left triangle (x, z), (x, z + 1), (x + 1, z)
+                double nx = h1 - h4;
+                double nz = h1 - h2;
+                double len = Math.sqrt(nx * nx + 1 + nz * nz);
+                nx /= len;
+                nz /= len;
+                double ny = 1 / len;
+                myFormat.put(buffer, count, k++, x, h1, z, nx, ny, nz, j, i);
+                myFormat.put(buffer, count, k++, x, h2, z + 1, nx, ny, nz, j, i + 1);
+                myFormat.put(buffer, count, k++, x + 1, h4, z, nx, ny, nz, j + 1, i);
+
+                // bottom right triangle (x, z + 1), (x + 1, z + 1), (x + 1, z)
+                nx = h2 - h3;
+                nz = h4 - h3;
+                len = Math.sqrt(nx * nx + 1 + nz * nz);
+                nx /= len;
+                nz /= len;
+                ny = 1 / len;
+                myFormat.put(buffer, count, k++, x, h2, z + 1, nx, ny, nz, j, i + 1);
+                myFormat.put(buffer, count, k++, x + 1, h3, z + 1, nx, ny, nz, j + 1, i + 1);
+                myFormat.put(buffer, count, k++, x + 1, h4, z, nx, ny, nz, j + 1, i);
+            }
+        }
+
+        myBufferSize = count;
+        myVertexCount = count;
+    }
+
+    // reuse the buffer of the last build if it has not been uploaded yet
+    private ByteBuffer allocate(int count) {
+        if (data == null || data.capacity() != count * myFormat.vertexSize()) {
+            data = myFormat.allocate(count);
+        }
+        return data;
+    }
+
+    /**
+     * Upload the data generated by build() and drop the copy on the java heap.
+     *
+     * @param gl
+     */
+    public void upload(GL2 gl) {
+        if (myBufferIds[0] == 0) {
+            gl.glGenBuffers(2, myBufferIds, 0);
+        }
+
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, data.capacity(), data, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+        if (smooth) {
+            ShortBuffer indexesBuffer = Buffers.newDirectShortBuffer(indexes);
+            gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, myBufferIds[1]);
+            gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, indexes.length * Short.BYTES, indexesBuffer, GL2.GL_STATIC_DRAW);
+            gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+        }
+
+        data = null;
+        indexes = null;
+    }
+
+    // drop the data generated by build() without uploading it
+    public void discard() {
+        data = null;
+        indexes = null;
+    }
+
+    /**
+     * Regenerate the mesh, e.g. after the altitudes under this chunk changed.
+     *
+     * @param gl
+     */
+    public void rebuild(GL2 gl) {
+        build();
+        upload(gl);
+    }
+
+    /**
+     * Draw the chunk. The caller is responsible for the texture, material, shader
+     * and for enabling the vertex, normal and texture coordinate arrays.
+     *
+     * @param gl
+     */
+    public void draw(GL2 gl) {
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
+        myFormat.setPointers(gl, myBufferSize);
+
+        if (smooth) {
+            gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, myBufferIds[1]);
+            gl.glDrawElements(GL2.GL_TRIANGLES, myVertexCount, GL2.GL_UNSIGNED_SHORT, 0);
+            gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+        } else {
+            gl.glDrawArrays(GL2.GL_TRIANGLES, 0, myVertexCount);
+        }
+    }
+
+    /**
+     * Draw the shared vertices of a smooth chunk through another index buffer,
+     * e.g. a coarser level of detail from TerrainLod.
+     *
+     * @param gl
+     * @param indexBuffer
+     * @param indexCount
+     */
+    public void draw(GL2 gl, int indexBuffer, int indexCount) {
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
+        myFormat.setPointers(gl, myBufferSize);
+
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.glDrawElements(GL2.GL_TRIANGLES, indexCount, GL2.GL_UNSIGNED_SHORT, 0);
+        gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Free the GPU buffers, the chunk can be uploaded again after build().
+     *
+     * @param gl
+     */
+    public void release(GL2 gl) {
+        if (myBufferIds[0] > 0) {
+            gl.glDeleteBuffers(2, myBufferIds, 0);
+            myBufferIds[0] = 0;
+            myBufferIds[1] = 0;
+        }
+    }
+
+    // number of triangles
+    public int meshSize() {
+        return 2 * myWidth * myDepth;
+    }
+
+    // number of vertices
+    private int vertexSize() {
+        return (myWidth + 1) * (myDepth + 1);
+    }
+
+    private void initBounds() {
+        myMinY = Double.POSITIVE_INFINITY;
+        myMaxY = Double.NEGATIVE_INFINITY;
+
+        for (int i = 0; i <= myDepth; i++) {
+            for (int j = 0; j <= myWidth; j++) {
+                double y = myTerrain.getGridAltitude(myX + j, myZ + i);
+                myMinY = Math.min(myMinY, y);
+                myMaxY = Math.max(myMaxY, y);
+            }
+        }
+    }
+
+    private void initIndexes() {
+        if (indexes == null || indexes.length != 3 * meshSize()) {
+            indexes = new short[3 * meshSize()];
+        }
+
+        int width = myWidth + 1;
+
+        for (int i = 0; i < myDepth; i++) {
+            for (int j = 0; j < myWidth; j++) {
+                int k1 = i * width + j;
+                int k2 = (i + 1) * width + j;
+                int k3 = (i + 1) * width + j + 1;
+                int k4 = i * width + j + 1;
+
+                int b = 6 * (i * myWidth + j);
+
+                // local indexes never exceed (SIZE + 1)^2 - 1
+                indexes[b] = (short) k1;
+                indexes[b + 1] = (short) k2;
+                indexes[b + 2] = (short) k4;
+                indexes[b + 3] = (short) k2;
+                indexes[b + 4] = (short) k3;
+                indexes[b + 5] = (short) k4;
+            }
+        }
+    }
+}
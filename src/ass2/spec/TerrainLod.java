@@ -0,0 +1,212 @@
+package ass2.spec;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Level of detail for the smooth terrain (geomipmapping).
+ *
+ * Every chunk keeps all its vertices, a coarser level is just an index buffer that only
+ * uses every 2^level-th row and column. The outer ring of a chunk is stitched to the step
+ * of its neighbours, so both sides of an edge use exactly the same vertices and no cracks
+ * appear. Index buffers only depend on the chunk size and the levels, so they are shared
+ * by all chunks.
+ */
+public class TerrainLod {
+
+    // distance at which level 1 starts, every further level starts at twice the distance
+    private static final double LOD_DISTANCE = 6;
+
+    // key -> {buffer id, number of indexes}
+    private Map<Long, int[]> myIndexBuffers = new HashMap<>();
+
+    /**
+     * The level to use for a chunk at the given distance from the viewer.
+     *
+     * @param distance
+     * @param maxLevel
+     * @return
+     */
+    public static int level(double distance, int maxLevel) {
+        int level = 0;
+        double d = LOD_DISTANCE;
+        while (distance >= d && level < maxLevel) {
+            level++;
+            d *= 2;
+        }
+        return level;
+    }
+
+    /**
+     * The coarsest level a chunk of the given size can be stitched at,
+     * there has to be at least one row of vertices between the edges.
+     *
+     * @param width
+     * @param depth
+     * @return
+     */
+    public static int maxLevel(int width, int depth) {
+        int level = 0;
+        while ((2 << level) < Math.min(width, depth)) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Get the index buffer of a width x depth cells chunk at a level, with each edge
+     * at the level of the coarser of the chunk and its neighbour on that side.
+     *
+     * @return {buffer id, number of indexes}
+     */
+    public int[] indexBuffer(GL2 gl, int width, int depth, int level, int north, int south, int west, int east) {
+        long key = width | (long) depth << 8 | (long) level << 16
+                | (long) north << 20 | (long) south << 24 | (long) west << 28 | (long) east << 32;
+        int[] buffer = myIndexBuffers.get(key);
+        if (buffer == null) {
+            short[] indexes = indexes(width, depth, 1 << level, 1 << north, 1 << south, 1 << west, 1 << east);
+            buffer = new int[] {0, indexes.length};
+            gl.glGenBuffers(1, buffer, 0);
+            ShortBuffer indexesBuffer = Buffers.newDirectShortBuffer(indexes);
+            gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, buffer[0]);
+            gl.glBufferData(GL2.GL_ELEMENT_ARRAY_BUFFER, indexes.length * Short.BYTES, indexesBuffer, GL2.GL_STATIC_DRAW);
+            gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+            myIndexBuffers.put(key, buffer);
+        }
+        return buffer;
+    }
+
+    public void release(GL2 gl) {
+        for (int[] buffer : myIndexBuffers.values()) {
+            gl.glDeleteBuffers(1, buffer, 0);
+        }
+        myIndexBuffers.clear();
+    }
+
+    /**
+     * Triangulate a chunk using every step-th vertex inside and the given steps on the edges.
+     * Edge steps have to be multiples of step. Indexes address the (width + 1) x (depth + 1)
+     * vertex grid of the chunk row by row.
+     */
+    public static short[] indexes(int width, int depth, int step, int north, int south, int west, int east) {
+        Triangles triangles = new Triangles(width + 1);
+        int[] xs = samples(width, step);
+        int[] zs = samples(depth, step);
+        int nx = xs.length;
+        int nz = zs.length;
+
+        if (nx < 3 || nz < 3) {
+            // too small to have a ring, only happens for chunks a single cell wide
+            for (int b = 0; b < nz - 1; b++) {
+                for (int a = 0; a < nx - 1; a++) {
+                    triangles.quad(xs[a], zs[b], xs[a + 1], zs[b + 1]);
+                }
+            }
+            return triangles.toArray();
+        }
+
+        // inside of the ring at the chunk's own step
+        for (int b = 1; b < nz - 2; b++) {
+            for (int a = 1; a < nx - 2; a++) {
+                triangles.quad(xs[a], zs[b], xs[a + 1], zs[b + 1]);
+            }
+        }
+
+        // the ring, each side joins an edge at its own step to the inner row
+        int[] innerX = Arrays.copyOfRange(xs, 1, nx - 1);
+        int[] innerZ = Arrays.copyOfRange(zs, 1, nz - 1);
+        triangles.strip(samples(width, north), 0, innerX, zs[1], true);
+        triangles.strip(samples(width, south), depth, innerX, zs[nz - 2], true);
+        triangles.strip(samples(depth, west), 0, innerZ, xs[1], false);
+        triangles.strip(samples(depth, east), width, innerZ, xs[nx - 2], false);
+
+        return triangles.toArray();
+    }
+
+    // 0, step, 2 * step, ... and always the last vertex
+    private static int[] samples(int length, int step) {
+        int n = (length + step - 1) / step + 1;
+        int[] samples = new int[n];
+        for (int i = 0; i < n - 1; i++) {
+            samples[i] = i * step;
+        }
+        samples[n - 1] = length;
+        return samples;
+    }
+
+    // growable list of triangles over a grid with the given row length
+    private static class Triangles {
+
+        private int myRow;
+        private short[] myIndexes = new short[96];
+        private int mySize;
+
+        Triangles(int row) {
+            myRow = row;
+        }
+
+        // two triangles split the same way as the full resolution mesh
+        void quad(int x1, int z1, int x2, int z2) {
+            add(x1, z1, x1, z2, x2, z1);
+            add(x1, z2, x2, z2, x2, z1);
+        }
+
+        /**
+         * Zip an outer edge line to a parallel inner line, both sorted along the edge.
+         *
+         * @param outer positions along the edge
+         * @param outerPos position of the edge across it
+         * @param inner positions of the inner line along the edge
+         * @param innerPos position of the inner line across the edge
+         * @param alongX true if the edge runs along the x axis
+         */
+        void strip(int[] outer, int outerPos, int[] inner, int innerPos, boolean alongX) {
+            int i = 0;
+            int j = 0;
+            while (i < outer.length - 1 || j < inner.length - 1) {
+                boolean advanceOuter = j == inner.length - 1
+                        || (i < outer.length - 1 && outer[i + 1] <= inner[j + 1]);
+                int next = advanceOuter ? outer[i + 1] : inner[j + 1];
+                int nextPos = advanceOuter ? outerPos : innerPos;
+                if (alongX) {
+                    add(outer[i], outerPos, inner[j], innerPos, next, nextPos);
+                } else {
+                    add(outerPos, outer[i], innerPos, inner[j], nextPos, next);
+                }
+                if (advanceOuter) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+        }
+
+        // add a triangle facing up, whatever order the corners are given in
+        void add(int x1, int z1, int x2, int z2, int x3, int z3) {
+            int cross = (z2 - z1) * (x3 - x1) - (x2 - x1) * (z3 - z1);
+            if (cross == 0) {
+                return;
+            }
+            if (mySize + 3 > myIndexes.length) {
+                myIndexes = Arrays.copyOf(myIndexes, 2 * myIndexes.length);
+            }
+            myIndexes[mySize++] = (short) (z1 * myRow + x1);
+            if (cross > 0) {
+                myIndexes[mySize++] = (short) (z2 * myRow + x2);
+                myIndexes[mySize++] = (short) (z3 * myRow + x3);
+            } else {
+                myIndexes[mySize++] = (short) (z3 * myRow + x3);
+                myIndexes[mySize++] = (short) (z2 * myRow + x2);
+            }
+        }
+
+        short[] toArray() {
+            return Arrays.copyOf(myIndexes, mySize);
+        }
+    }
+}
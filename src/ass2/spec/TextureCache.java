@@ -0,0 +1,102 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Shares textures between objects, so a file is only decoded and uploaded once
+ * however many trees, roads or enemies use it.
+ *
+ * Every get() has to be matched by a release(), the texture is deleted when
+ * its last user releases it.
+ */
+public class TextureCache {
+
+    private static class Entry {
+        final String key;
+        final MyTexture texture;
+        int references;
+
+        Entry(String key, MyTexture texture) {
+            this.key = key;
+            this.texture = texture;
+        }
+    }
+
+    // file name and sampler settings -> shared texture
+    private static Map<String, Entry> myEntries = new HashMap<>();
+    private static Map<MyTexture, Entry> myTextures = new IdentityHashMap<>();
+
+    private static int myHits;
+    private static int myMisses;
+
+    /**
+     * Get the shared texture for a file, loading it on first use.
+     *
+     * @param gl
+     * @param fileName
+     * @param mipmaps
+     * @return
+     */
+    public static MyTexture get(GL2 gl, String fileName, boolean mipmaps) {
+        String key = fileName + (mipmaps ? "|mipmap" : "|linear");
+        Entry entry = myEntries.get(key);
+        if (entry == null) {
+            myMisses++;
+            entry = new Entry(key, new MyTexture(gl, fileName, mipmaps));
+            myEntries.put(key, entry);
+            myTextures.put(entry.texture, entry);
+        } else {
+            myHits++;
+        }
+        entry.references++;
+        return entry.texture;
+    }
+
+    public static MyTexture get(GL2 gl, String fileName) {
+        return get(gl, fileName, true);
+    }
+
+    /**
+     * Give back a texture from get(), it is deleted once nobody uses it.
+     * Textures that were not made by the cache are released straight away.
+     *
+     * @param gl
+     * @param texture
+     */
+    public static void release(GL2 gl, MyTexture texture) {
+        if (texture == null) {
+            return;
+        }
+        Entry entry = myTextures.get(texture);
+        if (entry == null) {
+            texture.release(gl);
+            return;
+        }
+        if (--entry.references == 0) {
+            myEntries.remove(entry.key);
+            myTextures.remove(texture);
+            texture.release(gl);
+        }
+    }
+
+    public static int hits() {
+        return myHits;
+    }
+
+    public static int misses() {
+        return myMisses;
+    }
+
+    // number of textures currently loaded
+    public static int size() {
+        return myEntries.size();
+    }
+
+    public static String stats() {
+        return String.format("textures: %d loaded, %d hits / %d misses", size(), hits(), misses());
+    }
+}
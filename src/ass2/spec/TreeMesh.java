@@ -0,0 +1,424 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The geometry of a tree, baked once into vertex buffers and shared by all trees.
+ *
+ * Trees only differ in their position, so every part is drawn for all visible trees
+ * with one instanced call, the positions are passed as a per instance attribute.
+ * Without instanced arrays every tree is drawn on its own, with its position as a
+ * constant attribute.
+ */
+public class TreeMesh {
+
+    private static final int STACKS = 32;
+    private static final int SLICES = 32;
+
+    private static final String BARK_TEX_FILE_NAME = "bark.png";
+    private static final String LEAF_TEX_FILE_NAME = "leaf2.jpg";
+    private static final String BARK_NORMAL_FILE_NAME = "bark_normal.png";
+
+    private static final float[] BARK_AMBIENT = {0.5f, 0.5f, 0.5f, 1};
+    private static final float[] BARK_DIFFUSE = {0.5f, 0.5f, 0.5f, 1};
+    private static final float[] BARK_SPECULAR = {0.6f, 0.6f, 0.6f, 1};
+    private static final float BARK_PHONG = 20;
+
+    private static final float[] LEAF_AMBIENT = {0.6f, 0.6f, 0.6f, 1};
+    private static final float[] LEAF_DIFFUSE = {0.6f, 0.6f, 0.6f, 1};
+    private static final float[] LEAF_SPECULAR = {0.1f, 0.1f, 0.1f, 1};
+    private static final float LEAF_PHONG = 10;
+
+    // position, normal, texture coordinate, tangent, bitangent
+    private static final int VERTEX_SIZE = 14;
+
+    private VertexFormat myFormat;
+
+    // vertices, tangents and bitangents, instance positions
+    private int[] myBufferIds = new int[3];
+    private int myVertexCount;
+
+    // first vertex and number of vertices of the trunk ends, the trunk surface and the leaves
+    private int myCapsFirst;
+    private int myCapsCount;
+    private int mySideFirst;
+    private int mySideCount;
+    private int myLeavesFirst;
+    private int myLeavesCount;
+
+    private FloatBuffer myInstances = newFloatBuffer(3 * 256);
+    // whether the context has instanced arrays
+    private boolean instanced;
+
+    private MyTexture barkTexture;
+    private MyTexture leafTexture;
+    private MyTexture barkNormal;
+
+    // the bark surface with normal mapping, everything else with per pixel lighting
+    private ShaderProgram barkProgram;
+    private ShaderProgram plainProgram;
+    private int textureMapLocation;
+    private int normalMapLocation;
+    private int tangentLocation;
+    private int bitangentLocation;
+    private int barkOffsetLocation;
+    private int texUnit;
+    private int plainOffsetLocation;
+
+    private boolean useNormalMap = true;
+
+    public void init(GL2 gl) {
+        myFormat = VertexFormat.forContext(gl);
+        instanced = gl.isExtensionAvailable("GL_VERSION_3_3") || gl.isExtensionAvailable("GL_ARB_instanced_arrays");
+        upload(gl, build());
+
+        barkTexture = TextureCache.get(gl, BARK_TEX_FILE_NAME);
+        leafTexture = TextureCache.get(gl, LEAF_TEX_FILE_NAME);
+        barkNormal = TextureCache.get(gl, BARK_NORMAL_FILE_NAME);
+
+        try {
+            barkProgram = ShaderCache.get(gl, "/shader/bark_vshader.glsl", "/shader/bark_fshader.glsl");
+            plainProgram = ShaderCache.get(gl, "/shader/tree_vshader.glsl", "/shader/per_pixel_fshader.glsl");
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(0);
+        }
+
+        textureMapLocation = barkProgram.uniform("textureMap");
+        normalMapLocation = barkProgram.uniform("normalMap");
+        tangentLocation = barkProgram.attribute("tangent");
+        bitangentLocation = barkProgram.attribute("bitangent");
+        barkOffsetLocation = barkProgram.attribute("offset");
+        texUnit = plainProgram.uniform("texUnit");
+        plainOffsetLocation = plainProgram.attribute("offset");
+    }
+
+    public void release(GL2 gl) {
+        if (myBufferIds[0] > 0) {
+            gl.glDeleteBuffers(myBufferIds.length, myBufferIds, 0);
+            Arrays.fill(myBufferIds, 0);
+        }
+        TextureCache.release(gl, barkTexture);
+        TextureCache.release(gl, leafTexture);
+        TextureCache.release(gl, barkNormal);
+        barkTexture = leafTexture = barkNormal = null;
+        ShaderCache.release(gl, barkProgram);
+        ShaderCache.release(gl, plainProgram);
+        barkProgram = plainProgram = null;
+    }
+
+    /**
+     * Draw a tree at the position of each of the given trees.
+     *
+     * @param gl
+     * @param trees
+     */
+    public void draw(GL2 gl, List<Tree> trees) {
+        int count = trees.size();
+        if (count == 0) {
+            return;
+        }
+
+        if (myInstances.capacity() < 3 * count) {
+            myInstances = newFloatBuffer(Math.max(3 * count, 2 * myInstances.capacity()));
+        }
+        myInstances.clear();
+        for (Tree tree : trees) {
+            double[] p = tree.getPosition();
+            myInstances.put((float) p[0]).put((float) p[1]).put((float) p[2]);
+        }
+        myInstances.flip();
+        if (instanced) {
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[2]);
+            gl.glBufferData(GL2.GL_ARRAY_BUFFER, 3 * count * Float.BYTES, myInstances, GL2.GL_STREAM_DRAW);
+        }
+
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
+        myFormat.enable(gl);
+        myFormat.setPointers(gl, myVertexCount);
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, barkTexture.getTextureId());
+
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, BARK_AMBIENT, 0);
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, BARK_DIFFUSE, 0);
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, BARK_SPECULAR, 0);
+        gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, BARK_PHONG);
+
+        // ends of the trunk
+        gl.glUseProgram(plainProgram.getID());
+        gl.glUniform1i(texUnit, 0);
+        drawInstanced(gl, plainOffsetLocation, myCapsFirst, myCapsCount, count);
+
+        // the trunk surface
+        if (useNormalMap) {
+            gl.glUseProgram(barkProgram.getID());
+            gl.glUniform1i(textureMapLocation, 0);
+            gl.glActiveTexture(GL2.GL_TEXTURE1);
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, barkNormal.getTextureId());
+            gl.glUniform1i(normalMapLocation, 1);
+
+            gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[1]);
+            enableAttribute(gl, tangentLocation, 6 * Float.BYTES, 0);
+            enableAttribute(gl, bitangentLocation, 6 * Float.BYTES, 3 * Float.BYTES);
+
+            drawInstanced(gl, barkOffsetLocation, mySideFirst, mySideCount, count);
+
+            disableAttribute(gl, tangentLocation);
+            disableAttribute(gl, bitangentLocation);
+
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+            gl.glActiveTexture(GL2.GL_TEXTURE0);
+            gl.glUseProgram(plainProgram.getID());
+        } else {
+            drawInstanced(gl, plainOffsetLocation, mySideFirst, mySideCount, count);
+        }
+
+        // leaves
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, leafTexture.getTextureId());
+
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_AMBIENT, LEAF_AMBIENT, 0);
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_DIFFUSE, LEAF_DIFFUSE, 0);
+        gl.glMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, LEAF_SPECULAR, 0);
+        gl.glMaterialf(GL2.GL_FRONT, GL2.GL_SHININESS, LEAF_PHONG);
+
+        drawInstanced(gl, plainOffsetLocation, myLeavesFirst, myLeavesCount, count);
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        gl.glUseProgram(0);
+
+        myFormat.disable(gl);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+    }
+
+    // draw part of the mesh once per instance, the offset attribute steps once per instance
+    private void drawInstanced(GL2 gl, int offsetLocation, int first, int count, int instances) {
+        if (!instanced) {
+            for (int i = 0; i < instances; i++) {
+                if (offsetLocation >= 0) {
+                    gl.glVertexAttrib3f(offsetLocation,
+                            myInstances.get(3 * i), myInstances.get(3 * i + 1), myInstances.get(3 * i + 2));
+                }
+                gl.glDrawArrays(GL2.GL_TRIANGLES, first, count);
+            }
+            return;
+        }
+
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[2]);
+        enableAttribute(gl, offsetLocation, 0, 0);
+        gl.glVertexAttribDivisor(offsetLocation, 1);
+
+        gl.glDrawArraysInstanced(GL2.GL_TRIANGLES, first, count, instances);
+
+        gl.glVertexAttribDivisor(offsetLocation, 0);
+        disableAttribute(gl, offsetLocation);
+    }
+
+    // three floats from the currently bound array buffer, attributes the compiler dropped are -1
+    private static void enableAttribute(GL2 gl, int location, int stride, long offset) {
+        if (location >= 0) {
+            gl.glEnableVertexAttribArray(location);
+            gl.glVertexAttribPointer(location, 3, GL2.GL_FLOAT, false, stride, offset);
+        }
+    }
+
+    private static void disableAttribute(GL2 gl, int location) {
+        if (location >= 0) {
+            gl.glDisableVertexAttribArray(location);
+        }
+    }
+
+    public void setUseNormalMap(boolean useNormalMap) {
+        this.useNormalMap = useNormalMap;
+    }
+
+    public boolean getUseNormalMap() {
+        return useNormalMap;
+    }
+
+    // number of triangles of one tree
+    public int meshSize() {
+        return (myCapsCount + mySideCount + myLeavesCount) / 3;
+    }
+
+    private void upload(GL2 gl, Triangles mesh) {
+        double[] v = mesh.myVertices;
+        myVertexCount = mesh.size();
+
+        ByteBuffer data = myFormat.allocate(myVertexCount);
+        FloatBuffer tangents = newFloatBuffer(6 * myVertexCount);
+        for (int i = 0; i < myVertexCount; i++) {
+            int a = i * VERTEX_SIZE;
+            myFormat.put(data, myVertexCount, i,
+                    v[a], v[a + 1], v[a + 2],
+                    v[a + 3], v[a + 4], v[a + 5],
+                    v[a + 6], v[a + 7]);
+            for (int j = 8; j < VERTEX_SIZE; j++) {
+                tangents.put((float) v[a + j]);
+            }
+        }
+        tangents.flip();
+
+        gl.glGenBuffers(myBufferIds.length, myBufferIds, 0);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[0]);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, data.capacity(), data, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, myBufferIds[1]);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, 6L * myVertexCount * Float.BYTES, tangents, GL2.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Generate the triangles of a tree standing at the origin, the same shape the
+     * trees used to draw in immediate mode: a cylinder trunk with flat ends and a
+     * sphere of leaves on top.
+     */
+    Triangles build() {
+        Triangles mesh = new Triangles();
+        double r = Tree.CYLINDER_RADIUS;
+        double h = Tree.HEIGHT;
+        double angle = 0;
+        double angleInterval = 2 * Math.PI / SLICES;
+
+        // bottom end of the trunk, the texture is just mapped across it
+        myCapsFirst = mesh.size();
+        mesh.vertex(0, 0, 0, 0, -1, 0, 0, 0, 1, 0, 0, 0, 0, 1);
+        for (int i = 0; i <= SLICES; i++) {
+            double x = r * Math.cos(angle);
+            double z = r * Math.sin(angle);
+            mesh.vertex(x, 0, z, 0, -1, 0, x, z, 1, 0, 0, 0, 0, 1);
+            angle += angleInterval;
+        }
+        mesh.fan(myCapsFirst);
+
+        // trunk surface, the bitangent points up the trunk
+        int start = mesh.size();
+        double texTop = 3;
+        for (int i = 0; i <= SLICES; i++) {
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            double s = (double) 2 * i / SLICES;
+            mesh.vertex(r * cos, 0, r * sin, cos, 0, sin, s, 0, -sin, 0, cos, 0, 1, 0);
+            mesh.vertex(r * cos, h, r * sin, cos, 0, sin, s, texTop, -sin, 0, cos, 0, 1, 0);
+            angle += angleInterval;
+        }
+        // kept aside so the two ends are next to each other in the buffer
+        double[] side = mesh.cut(start);
+
+        // top end of the trunk
+        start = mesh.size();
+        mesh.vertex(0, h, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 1);
+        for (int i = 0; i <= SLICES; i++) {
+            double x = r * Math.cos(angle);
+            double z = r * Math.sin(angle);
+            mesh.vertex(x, h, z, 0, 1, 0, x, z, 1, 0, 0, 0, 0, 1);
+            angle -= angleInterval;
+        }
+        mesh.fan(start);
+        myCapsCount = mesh.size() - myCapsFirst;
+
+        mySideFirst = mesh.size();
+        mesh.append(side);
+        mesh.strip(mySideFirst);
+        mySideCount = mesh.size() - mySideFirst;
+
+        // leaves, a sphere from the bottom to the top stack by stack
+        myLeavesFirst = mesh.size();
+        double radius = Tree.SPHERE_RADIUS;
+        double centre = h + radius;
+        double deltaT = 0.5 / STACKS;
+        for (int i = 0; i < STACKS; i++) {
+            double t = -0.25 + i * deltaT;
+            start = mesh.size();
+            for (int j = 0; j <= SLICES; j++) {
+                double ang = Math.toRadians(j * 360.0 / SLICES);
+                double s = 1.0 / SLICES * j * 3;
+                sphereVertex(mesh, radius, centre, t, ang, s, 1.0 / STACKS * i * 3);
+                sphereVertex(mesh, radius, centre, t + deltaT, ang, s, 1.0 / STACKS * (i + 1) * 3);
+            }
+            mesh.strip(start);
+        }
+        myLeavesCount = mesh.size() - myLeavesFirst;
+
+        return mesh;
+    }
+
+    // t goes from -0.25 at the bottom to 0.25 at the top of the sphere
+    private static void sphereVertex(Triangles mesh, double radius, double centre,
+                                     double t, double ang, double s, double tCoord) {
+        double r = Math.cos(2 * Math.PI * t);
+        double y = Math.sin(2 * Math.PI * t);
+        double cos = Math.cos(ang);
+        double sin = Math.sin(ang);
+        double[] normal = {r * cos, y, r * sin};
+        MathUtils.normalize(normal);
+        mesh.vertex(radius * r * cos, centre + radius * y, radius * r * sin,
+                normal[0], normal[1], normal[2], s, tCoord,
+                -sin, 0, cos, -y * cos, r, -y * sin);
+    }
+
+    private static FloatBuffer newFloatBuffer(int size) {
+        return ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    // growable list of vertices that turns strips and fans into separate triangles
+    static class Triangles {
+
+        private double[] myVertices = new double[VERTEX_SIZE * 1024];
+        private int mySize;
+
+        void vertex(double... v) {
+            if ((mySize + 1) * VERTEX_SIZE > myVertices.length) {
+                myVertices = Arrays.copyOf(myVertices, 2 * myVertices.length);
+            }
+            System.arraycopy(v, 0, myVertices, mySize * VERTEX_SIZE, VERTEX_SIZE);
+            mySize++;
+        }
+
+        int size() {
+            return mySize;
+        }
+
+        // the vertices from start on are a triangle strip, replace them by its triangles
+        void strip(int start) {
+            double[] strip = cut(start);
+            for (int k = 0; k < strip.length / VERTEX_SIZE - 2; k++) {
+                // every second triangle of a strip is wound the other way round
+                copy(strip, k % 2 == 0 ? k : k + 1);
+                copy(strip, k % 2 == 0 ? k + 1 : k);
+                copy(strip, k + 2);
+            }
+        }
+
+        // the vertices from start on are a triangle fan, replace them by its triangles
+        void fan(int start) {
+            double[] fan = cut(start);
+            for (int k = 1; k < fan.length / VERTEX_SIZE - 1; k++) {
+                copy(fan, 0);
+                copy(fan, k);
+                copy(fan, k + 1);
+            }
+        }
+
+        // remove the vertices from start on and return them
+        double[] cut(int start) {
+            double[] cut = Arrays.copyOfRange(myVertices, start * VERTEX_SIZE, mySize * VERTEX_SIZE);
+            mySize = start;
+            return cut;
+        }
+
+        void append(double[] vertices) {
+            for (int i = 0; i < vertices.length / VERTEX_SIZE; i++) {
+                copy(vertices, i);
+            }
+        }
+
+        private void copy(double[] from, int i) {
+            vertex(Arrays.copyOfRange(from, i * VERTEX_SIZE, (i + 1) * VERTEX_SIZE));
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package ass2.spec;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL3ES3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Describes how positions, normals and texture coordinates are packed into one vertex buffer,
+ * writes vertices in that layout and sets up the matching client array pointers.
+ *
+ * Positions are always floats. Normals can be floats, shorts or packed into one int
+ * (GL_INT_2_10_10_10_REV), texture coordinates floats or half floats. The attributes are
+ * either interleaved per vertex or stored one block after another.
+ */
+public class VertexFormat {
+
+    // 20 bytes per vertex, against 64 bytes for the old 8 doubles
+    public static final VertexFormat COMPACT = new VertexFormat(GL3ES3.GL_INT_2_10_10_10_REV, GL2.GL_HALF_FLOAT, true);
+    // 32 bytes per vertex, for drivers without packed normals or half floats, see forContext()
+    public static final VertexFormat FLOAT = new VertexFormat(GL2.GL_FLOAT, GL2.GL_FLOAT, true);
+
+    private static final int POSITION_SIZE = 3 * Float.BYTES;
+
+    /**
+     * The smallest format the context can draw: COMPACT needs packed normals (GL 3.3) and
+     * half float vertex data (GL 3.0) or their extensions, otherwise FLOAT.
+     *
+     * @param gl
+     * @return
+     */
+    public static VertexFormat forContext(GL2 gl) {
+        boolean packed = gl.isExtensionAvailable("GL_VERSION_3_3")
+                || gl.isExtensionAvailable("GL_ARB_vertex_type_2_10_10_10_rev");
+        boolean half = gl.isExtensionAvailable("GL_VERSION_3_0")
+                || gl.isExtensionAvailable("GL_ARB_half_float_vertex");
+        return packed && half ? COMPACT : FLOAT;
+    }
+
+    private int myNormalType;
+    private int myTexCoordType;
+    private boolean myInterleaved;
+
+    /**
+     * @param normalType GL_FLOAT, GL_SHORT or GL_INT_2_10_10_10_REV
+     * @param texCoordType GL_FLOAT or GL_HALF_FLOAT
+     * @param interleaved store position, normal and texture coordinate of each vertex together
+     */
+    public VertexFormat(int normalType, int texCoordType, boolean interleaved) {
+        if (normalType != GL2.GL_FLOAT && normalType != GL2.GL_SHORT && normalType != GL3ES3.GL_INT_2_10_10_10_REV) {
+            throw new IllegalArgumentException("unsupported normal type " + normalType);
+        }
+        if (texCoordType != GL2.GL_FLOAT && texCoordType != GL2.GL_HALF_FLOAT) {
+            throw new IllegalArgumentException("unsupported texture coordinate type " + texCoordType);
+        }
+        myNormalType = normalType;
+        myTexCoordType = texCoordType;
+        myInterleaved = interleaved;
+    }
+
+    public boolean isInterleaved() {
+        return myInterleaved;
+    }
+
+    public int normalSize() {
+        switch (myNormalType) {
+            case GL2.GL_FLOAT:
+                return 3 * Float.BYTES;
+            case GL2.GL_SHORT:
+                // padded so every attribute stays 4 byte aligned
+                return 4 * Short.BYTES;
+            default:
+                return Integer.BYTES;
+        }
+    }
+
+    public int texCoordSize() {
+        return myTexCoordType == GL2.GL_FLOAT ? 2 * Float.BYTES : 2 * Short.BYTES;
+    }
+
+    // number of bytes per vertex
+    public int vertexSize() {
+        return POSITION_SIZE + normalSize() + texCoordSize();
+    }
+
+    /**
+     * Allocate a direct buffer big enough for count vertices.
+     *
+     * @param count
+     * @return
+     */
+    public ByteBuffer allocate(int count) {
+        return ByteBuffer.allocateDirect(count * vertexSize()).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Write vertex i of a buffer holding count vertices.
+     */
+    public void put(ByteBuffer buffer, int count, int i,
+                    double x, double y, double z,
+                    double nx, double ny, double nz,
+                    double s, double t) {
+        int p = i * stride(POSITION_SIZE);
+        buffer.putFloat(p, (float) x);
+        buffer.putFloat(p + Float.BYTES, (float) y);
+        buffer.putFloat(p + 2 * Float.BYTES, (float) z);
+
+        int n = normalOffset(count) + i * stride(normalSize());
+        switch (myNormalType) {
+            case GL2.GL_FLOAT:
+                buffer.putFloat(n, (float) nx);
+                buffer.putFloat(n + Float.BYTES, (float) ny);
+                buffer.putFloat(n + 2 * Float.BYTES, (float) nz);
+                break;
+            case GL2.GL_SHORT:
+                buffer.putShort(n, (short) Math.round(MathUtils.clamp(nx, -1, 1) * Short.MAX_VALUE));
+                buffer.putShort(n + Short.BYTES, (short) Math.round(MathUtils.clamp(ny, -1, 1) * Short.MAX_VALUE));
+                buffer.putShort(n + 2 * Short.BYTES, (short) Math.round(MathUtils.clamp(nz, -1, 1) * Short.MAX_VALUE));
+                break;
+            default:
+                buffer.putInt(n, pack1010102(nx, ny, nz));
+                break;
+        }
+
+        int c = texCoordOffset(count) + i * stride(texCoordSize());
+        if (myTexCoordType == GL2.GL_FLOAT) {
+            buffer.putFloat(c, (float) s);
+            buffer.putFloat(c + Float.BYTES, (float) t);
+        } else {
+            buffer.putShort(c, toHalf((float) s));
+            buffer.putShort(c + Short.BYTES, toHalf((float) t));
+        }
+    }
+
+    /**
+     * Point the vertex, normal and texture coordinate arrays into the currently bound
+     * array buffer, which holds count vertices in this format.
+     *
+     * @param gl
+     * @param count
+     */
+    public void setPointers(GL2 gl, int count) {
+        gl.glVertexPointer(3, GL2.GL_FLOAT, stride(POSITION_SIZE), 0);
+        gl.glNormalPointer(myNormalType, stride(normalSize()), normalOffset(count));
+        gl.glTexCoordPointer(2, myTexCoordType, stride(texCoordSize()), texCoordOffset(count));
+    }
+
+    public void enable(GL2 gl) {
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+    }
+
+    public void disable(GL2 gl) {
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+    }
+
+    // distance between two consecutive values of an attribute
+    private int stride(int size) {
+        return myInterleaved ? vertexSize() : size;
+    }
+
+    private int normalOffset(int count) {
+        return myInterleaved ? POSITION_SIZE : count * POSITION_SIZE;
+    }
+
+    private int texCoordOffset(int count) {
+        return myInterleaved ? POSITION_SIZE + normalSize() : count * (POSITION_SIZE + normalSize());
+    }
+
+    // signed normalized 10 bits per component, w is unused for normals
+    private static int pack1010102(double x, double y, double z) {
+        int px = (int) Math.round(MathUtils.clamp(x, -1, 1) * 511) & 0x3ff;
+        int py = (int) Math.round(MathUtils.clamp(y, -1, 1) * 511) & 0x3ff;
+        int pz = (int) Math.round(MathUtils.clamp(z, -1, 1) * 511) & 0x3ff;
+        return px | (py << 10) | (pz << 20);
+    }
+
+    /**
+     * Convert a float to an IEEE 754 half float, rounding to nearest.
+     *
+     * @param f
+     * @return
+     */
+    public static short toHalf(float f) {
+        int bits = Float.floatToIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+
+        if (exp >= 0x1f) {
+            // too big, or infinity / NaN
+            boolean nan = ((bits >>> 23) & 0xff) == 0xff && mantissa != 0;
+            return (short) (sign | 0x7c00 | (nan ? 0x200 : 0));
+        }
+        if (exp <= 0) {
+            if (exp < -10) {
+                // too small, flush to zero
+                return (short) sign;
+            }
+            // subnormal half
+            mantissa |= 0x800000;
+            int shift = 14 - exp;
+            int half = mantissa >> shift;
+            if (((mantissa >> (shift - 1)) & 1) != 0) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = sign | (exp << 10) | (mantissa >> 13);
+        if ((mantissa & 0x1000) != 0) {
+            // round up, a carry into the exponent is still the right result
+            half++;
+        }
+        return (short) half;
+    }
+}
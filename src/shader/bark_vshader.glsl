@@ -13,9 +13,13 @@ varying vec3 tanSpotDirection;
 
 attribute vec3 tangent;
 attribute vec3 bitangent;
+// position of the tree, one per instance
+attribute vec3 offset;
 
 void main() {
-    fragPosition = vec3(gl_ModelViewMatrix * gl_Vertex);
+    vec4 vertex = gl_Vertex + vec4(offset, 0.0);
+
+    fragPosition = vec3(gl_ModelViewMatrix * vertex);
     normal = normalize(gl_NormalMatrix * gl_Normal);
     texCoord = vec2(gl_MultiTexCoord0);
 
@@ -40,5 +44,5 @@ void main() {
     tanLightDirection2 = TBN * (gl_LightSource[1].position.xyz - fragPosition);
     tanSpotDirection = TBN * gl_LightSource[1].spotDirection;
 
-    gl_Position = gl_ModelViewProjectionMatrix * gl_Vertex;
+    gl_Position = gl_ModelViewProjectionMatrix * vertex;
 }
@@ -4,9 +4,19 @@ varying vec3 diffuseColor;
 varying vec3 specularColor;
 varying vec2 texCoords;
 
+// per instance: translation and scale, and rotation around the y axis in radians
+attribute vec4 placement;
+attribute float rotation;
+
 void main() {
-    vec3 normalDirection = normalize(gl_NormalMatrix * gl_Normal);
-    vec3 viewDirection = -normalize(vec3(gl_ModelViewMatrix * gl_Vertex));
+    // same as glTranslate, glRotate around y, glScale
+    float c = cos(rotation);
+    float s = sin(rotation);
+    mat3 turn = mat3(c, 0.0, -s, 0.0, 1.0, 0.0, s, 0.0, c);
+    vec4 vertex = vec4(turn * (gl_Vertex.xyz * placement.w) + placement.xyz, 1.0);
+
+    vec3 normalDirection = normalize(gl_NormalMatrix * (turn * gl_Normal));
+    vec3 viewDirection = -normalize(vec3(gl_ModelViewMatrix * vertex));
 
     vec3 ambientColor = vec3(0.0, 0.0, 0.0);
     diffuseColor = vec3(0.0, 0.0, 0.0);
@@ -24,7 +34,7 @@ void main() {
             normalize(vec3(gl_LightSource[i].position));
         } else {
             // point light or spotlight (or other kind of light)
-            vec3 vertexToLightSource = vec3(gl_LightSource[i].position - gl_ModelViewMatrix * gl_Vertex);
+            vec3 vertexToLightSource = vec3(gl_LightSource[i].position - gl_ModelViewMatrix * vertex);
             float distance = length(vertexToLightSource);
             attenuation = 1.0 / (1.0 + 1 * distance); // linear attenuation
             lightDirection = normalize(vertexToLightSource);
@@ -71,5 +81,5 @@ void main() {
     specularColor = vec3(gl_FrontMaterial.specular) * specularColor;
 
     texCoords = vec2(gl_MultiTexCoord0);
-    gl_Position = gl_ModelViewProjectionMatrix * gl_Vertex;
+    gl_Position = gl_ModelViewProjectionMatrix * vertex;
 }
\ No newline at end of file
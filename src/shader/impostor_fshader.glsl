@@ -0,0 +1,23 @@
+#version 120
+
+varying vec3 normal;
+varying vec2 texCoords;
+varying float fade;
+
+uniform sampler2D texUnit;
+
+void main() {
+    vec4 color = texture2D(texUnit, texCoords);
+    float alpha = color.a * fade;
+    if (alpha < 0.1) {
+        // nothing was drawn there, keep it out of the depth buffer
+        discard;
+    }
+
+    // the atlas holds unlit colors, light them with the sun only
+    vec3 lightDirection = normalize(vec3(gl_LightSource[0].position));
+    vec3 light = vec3(gl_LightModel.ambient) + vec3(gl_LightSource[0].ambient)
+        + vec3(gl_LightSource[0].diffuse) * max(0.0, dot(normalize(normal), lightDirection));
+
+    gl_FragColor = vec4(color.rgb * min(light, vec3(1.0)), alpha);
+}
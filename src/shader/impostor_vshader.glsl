@@ -0,0 +1,17 @@
+#version 120
+
+// opacity of the corner, for cross fading with the real object
+attribute float opacity;
+
+varying vec3 normal;
+varying vec2 texCoords;
+varying float fade;
+
+void main() {
+    // impostors are shaded like ground facing the sky
+    normal = normalize(gl_NormalMatrix * vec3(0.0, 1.0, 0.0));
+    texCoords = vec2(gl_MultiTexCoord0);
+    fade = opacity;
+
+    gl_Position = gl_ModelViewProjectionMatrix * gl_Vertex;
+}
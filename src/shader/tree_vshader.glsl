@@ -0,0 +1,18 @@
+#version 120
+
+varying vec3 position;
+varying vec3 normal;
+varying vec2 texCoords;
+
+// position of the tree, one per instance
+attribute vec3 offset;
+
+void main() {
+    vec4 vertex = gl_Vertex + vec4(offset, 0.0);
+
+    position = vec3(gl_ModelViewMatrix * vertex);
+    normal = normalize(gl_NormalMatrix * gl_Normal);
+    texCoords = vec2(gl_MultiTexCoord0);
+
+    gl_Position = gl_ModelViewProjectionMatrix * vertex;
+}
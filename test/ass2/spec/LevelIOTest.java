@@ -0,0 +1,70 @@
+package ass2.spec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+
+import static ass2.spec.TerrainAssert.assertIndexed;
+import static ass2.spec.TerrainAssert.assertSameTerrain;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saving a level in the binary format and loading it again must give the same Terrain,
+ * with its objects in the spatial indexes like a JSON level.
+ */
+public class LevelIOTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shippedLevels() throws Exception {
+        for (File level : TerrainAssert.levels()) {
+            Terrain json = LevelIO.load(level);
+            assertIndexed(level.getName(), json);
+            assertSameTerrain(level.getName() + " binary", json, roundTrip(json, level.getName()));
+        }
+    }
+
+    // altitudes that need doubles, and more objects than the shipped levels have
+    @Test
+    public void generatedLevel() throws Exception {
+        Random random = new Random(9);
+        int size = 33;
+        Terrain terrain = new Terrain(size, size);
+        terrain.setSunlightDir(-1, 1, 0.5f);
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                terrain.setGridAltitude(x, z, random.nextGaussian());
+            }
+        }
+        for (int i = 0; i < 300; i++) {
+            terrain.addTree(random.nextDouble() * (size - 1), random.nextDouble() * (size - 1));
+        }
+        for (int i = 0; i < 4; i++) {
+            terrain.addRoad(0.5 + random.nextDouble(), new double[] {
+                    random.nextDouble() * (size - 1), random.nextDouble() * (size - 1),
+                    random.nextDouble() * (size - 1), random.nextDouble() * (size - 1),
+                    random.nextDouble() * (size - 1), random.nextDouble() * (size - 1),
+                    random.nextDouble() * (size - 1), random.nextDouble() * (size - 1)});
+        }
+        for (int i = 0; i < 21; i++) {
+            terrain.addEnemy(random.nextDouble() * (size - 1), random.nextDouble() * (size - 1),
+                    random.nextInt(360), 0.5 + random.nextDouble());
+        }
+        assertSameTerrain("generated binary", terrain, roundTrip(terrain, "generated"));
+    }
+
+    // save in the binary format, check the loaded terrain is indexed and return it
+    private Terrain roundTrip(Terrain terrain, String name) throws Exception {
+        File binary = folder.newFile(name + ".bin");
+        LevelIO.saveBinary(terrain, binary);
+        assertTrue(name + " not written as binary", LevelIO.isBinary(binary));
+        Terrain loaded = LevelIO.load(binary);
+        assertIndexed(name + " binary", loaded);
+        return loaded;
+    }
+}
@@ -0,0 +1,208 @@
+package ass2.spec;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Random;
+
+import static ass2.spec.TerrainAssert.assertSameTerrain;
+
+/**
+ * LevelParser must load every level to the same Terrain as the org.json loader it replaced.
+ */
+public class LevelParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shippedLevels() throws Exception {
+        for (File level : TerrainAssert.levels()) {
+            assertSameTerrain(level.getName(), loadWithJsonObject(level), LevelIO.load(level));
+        }
+    }
+
+    // objects before the altitudes, altitudes before the size
+    @Test
+    public void keysInAnyOrder() throws Exception {
+        File level = write("shuffled.json",
+                "{\"enemies\": [{\"scale\": 2, \"z\": 1.5, \"x\": 2.5, \"rotation\": 45}],",
+                " \"roads\": [{\"spine\": [0, 0.5, 1, 0.5, 2, 1.5, 3, 2.5], \"width\": 0.75}],",
+                " \"trees\": [{\"z\": 1, \"x\": 1}, {\"x\": 2.25, \"z\": 0.5}],",
+                " \"altitude\": [0, 1, 2, 3, 1, 2, 3, 4, 2, 3, 4, 5, 3, 4, 5, 6],",
+                " \"sunlight\": [-1, 1, 0],",
+                " \"depth\": 4,",
+                " \"width\": 4}");
+        assertSameTerrain(level.getName(), loadWithJsonObject(level), LevelIO.load(level));
+    }
+
+    @Test
+    public void numbers() throws Exception {
+        String[] numbers = {
+                "0", "-0", "-0.0", "0.1", "0.30000000000000004", "1e-3", "2.5E+2", "-7E-1", "1e22", "1e23",
+                "123456789012345678", "1234567890123456789", "12345678901234567890123",
+                "0.123456789012345678901", "9007199254740993", "4.9e-324", "1.7976931348623157e308",
+                "3.14159265358979323846", "100000000000000000000000", "\"1.5\""
+        };
+        int width = numbers.length;
+        StringBuilder altitude = new StringBuilder();
+        for (int z = 0; z < 2; z++) {
+            for (String number : numbers) {
+                altitude.append(altitude.length() == 0 ? "" : ", ").append(number);
+            }
+        }
+        File level = write("numbers.json",
+                "{\"width\": " + width + ", \"depth\": 2, \"sunlight\": [1e0, 1.0E0, -0.5],",
+                " \"altitude\": [" + altitude + "],",
+                " \"trees\": [{\"x\": 1.0000000000000002, \"z\": 0.99999999999999989}]}");
+        assertSameTerrain(level.getName(), loadWithJsonObject(level), LevelIO.load(level));
+    }
+
+    // org.json accepts a comma before a closing bracket, and ignores keys it does not know
+    @Test
+    public void trailingCommasAndUnknownKeys() throws Exception {
+        File level = write("commas.json",
+                "{\"width\": 2, \"depth\": 2, \"name\": \"a \\\"level\\\"\", \"sunlight\": [0, 1, 0,],",
+                " \"altitude\": [0.5, 1.5, 2.5, 3.5,],",
+                " \"extra\": {\"list\": [1, [2, 3], {\"x\": true}], \"none\": null},",
+                " \"trees\": [{\"x\": 0.5, \"z\": 0.5, \"kind\": \"oak\",},],",
+                " \"roads\": [{\"width\": 1, \"spine\": [0, 0, 0.5, 0, 1, 0, 1, 1,],},],",
+                " \"enemies\": [{\"x\": 1, \"z\": 0.25,},],}");
+        assertSameTerrain(level.getName(), loadWithJsonObject(level), LevelIO.load(level));
+    }
+
+    @Test
+    public void randomLevel() throws Exception {
+        Random random = new Random(8);
+        int size = 33;
+        StringBuilder json = new StringBuilder();
+        json.append("{\"width\": ").append(size).append(", \"depth\": ").append(size)
+                .append(", \"sunlight\": [").append(random.nextGaussian()).append(", 1, ")
+                .append(random.nextGaussian()).append("], \"altitude\": [");
+        for (int i = 0; i < size * size; i++) {
+            json.append(i == 0 ? "" : ", ").append(number(random));
+        }
+        json.append("], \"trees\": [");
+        for (int i = 0; i < 300; i++) {
+            json.append(i == 0 ? "" : ", ").append("{\"x\": ").append(random.nextDouble() * (size - 1))
+                    .append(", \"z\": ").append(random.nextDouble() * (size - 1)).append('}');
+        }
+        json.append("], \"enemies\": [");
+        for (int i = 0; i < 21; i++) {
+            json.append(i == 0 ? "" : ", ").append("{\"x\": ").append(random.nextDouble() * (size - 1))
+                    .append(", \"z\": ").append(random.nextDouble() * (size - 1))
+                    .append(", \"rotation\": ").append(random.nextInt(360))
+                    .append(", \"scale\": ").append(number(random)).append('}');
+        }
+        json.append("]}");
+        File level = write("random.json", json.toString());
+        assertSameTerrain(level.getName(), loadWithJsonObject(level), LevelIO.load(level));
+    }
+
+    // a number in one of the ways level files write them
+    private static String number(Random random) {
+        double d = random.nextGaussian() * Math.pow(10, random.nextInt(12) - 6);
+        switch (random.nextInt(4)) {
+            case 0:
+                return Double.toString(d);
+            case 1:
+                return String.format(Locale.ROOT, "%.3f", d);
+            case 2:
+                return String.format(Locale.ROOT, "%.20e", d);
+            default:
+                return Integer.toString((int) (d * 1000));
+        }
+    }
+
+    private File write(String name, String... lines) throws IOException {
+        File file = folder.newFile(name);
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (String line : lines) {
+                out.println(line);
+            }
+        }
+        return file;
+    }
+
+    // the loader LevelParser replaced, kept as it was to compare against
+    private static Terrain loadWithJsonObject(File mapFile) throws IOException {
+        try (Reader in = new FileReader(mapFile)) {
+            JSONTokener jtk = new JSONTokener(in);
+            JSONObject jsonTerrain = new JSONObject(jtk);
+
+            int width = jsonTerrain.getInt("width");
+            int depth = jsonTerrain.getInt("depth");
+            Terrain terrain = new Terrain(width, depth);
+
+            JSONArray jsonSun = jsonTerrain.getJSONArray("sunlight");
+            float dx = (float) jsonSun.getDouble(0);
+            float dy = (float) jsonSun.getDouble(1);
+            float dz = (float) jsonSun.getDouble(2);
+            terrain.setSunlightDir(dx, dy, dz);
+
+            JSONArray jsonAltitude = jsonTerrain.getJSONArray("altitude");
+            for (int i = 0; i < jsonAltitude.length(); i++) {
+                int x = i % width;
+                int z = i / width;
+
+                double h = jsonAltitude.getDouble(i);
+                terrain.setGridAltitude(x, z, h);
+            }
+
+            if (jsonTerrain.has("trees")) {
+                JSONArray jsonTrees = jsonTerrain.getJSONArray("trees");
+                for (int i = 0; i < jsonTrees.length(); i++) {
+                    JSONObject jsonTree = jsonTrees.getJSONObject(i);
+                    double x = jsonTree.getDouble("x");
+                    double z = jsonTree.getDouble("z");
+                    terrain.addTree(x, z);
+                }
+            }
+
+            if (jsonTerrain.has("roads")) {
+                JSONArray jsonRoads = jsonTerrain.getJSONArray("roads");
+                for (int i = 0; i < jsonRoads.length(); i++) {
+                    JSONObject jsonRoad = jsonRoads.getJSONObject(i);
+                    double w = jsonRoad.getDouble("width");
+
+                    JSONArray jsonSpine = jsonRoad.getJSONArray("spine");
+                    double[] spine = new double[jsonSpine.length()];
+
+                    for (int j = 0; j < jsonSpine.length(); j++) {
+                        spine[j] = jsonSpine.getDouble(j);
+                    }
+                    terrain.addRoad(w, spine);
+                }
+            }
+
+            if (jsonTerrain.has("enemies")) {
+                JSONArray jsonEnemies = jsonTerrain.getJSONArray("enemies");
+                for (int i = 0; i < jsonEnemies.length(); i++) {
+                    JSONObject jsonEnemy = jsonEnemies.getJSONObject(i);
+                    double x = jsonEnemy.getDouble("x");
+                    double z = jsonEnemy.getDouble("z");
+                    double rotation = 0;
+                    if (jsonEnemy.has("rotation")) {
+                        rotation = jsonEnemy.getDouble("rotation");
+                    }
+                    double scale = 1;
+                    if (jsonEnemy.has("scale")) {
+                        scale = jsonEnemy.getDouble("scale");
+                    }
+                    terrain.addEnemy(x, z, rotation, scale);
+                }
+            }
+            return terrain;
+        }
+    }
+}
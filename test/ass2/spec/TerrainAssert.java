@@ -0,0 +1,140 @@
+package ass2.spec;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exact comparison of loaded terrains, every double compared bit for bit, and checks
+ * of their spatial indexes.
+ */
+class TerrainAssert {
+
+    /**
+     * The level files shipped with the game, read from the class path.
+     *
+     * @return
+     */
+    static File[] levels() throws URISyntaxException {
+        File dir = new File(TerrainAssert.class.getResource("/level").toURI());
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".json"));
+        assertNotNull(files);
+        assertTrue("no levels in " + dir, files.length > 0);
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Check that two terrains hold the same size, sunlight, altitudes, trees, roads and enemies.
+     *
+     * @param message
+     * @param expected
+     * @param actual
+     */
+    static void assertSameTerrain(String message, Terrain expected, Terrain actual) {
+        assertEquals(message + ": size", expected.size(), actual.size());
+        assertBits(message + ": sunlight", expected.getSunlight(), actual.getSunlight());
+
+        for (int z = 0; z < expected.size().height; z++) {
+            for (int x = 0; x < expected.size().width; x++) {
+                assertBits(message + ": altitude " + x + ", " + z,
+                        expected.getGridAltitude(x, z), actual.getGridAltitude(x, z));
+            }
+        }
+
+        assertEquals(message + ": trees", expected.trees().size(), actual.trees().size());
+        for (int i = 0; i < expected.trees().size(); i++) {
+            assertBits(message + ": tree " + i,
+                    expected.trees().get(i).getPosition(), actual.trees().get(i).getPosition());
+        }
+
+        assertEquals(message + ": roads", expected.roads().size(), actual.roads().size());
+        for (int i = 0; i < expected.roads().size(); i++) {
+            Road e = expected.roads().get(i);
+            Road a = actual.roads().get(i);
+            assertBits(message + ": road " + i + " width", e.width(), a.width());
+            assertEquals(message + ": road " + i + " segments", e.size(), a.size());
+            for (int j = 0; j <= 3 * e.size(); j++) {
+                assertBits(message + ": road " + i + " point " + j, e.controlPoint(j), a.controlPoint(j));
+            }
+        }
+
+        assertEquals(message + ": enemies", expected.enemies().size(), actual.enemies().size());
+        for (int i = 0; i < expected.enemies().size(); i++) {
+            Enemy e = expected.enemies().get(i);
+            Enemy a = actual.enemies().get(i);
+            assertBits(message + ": enemy " + i + " translation", e.getTranslation(), a.getTranslation());
+            assertBits(message + ": enemy " + i + " rotation", e.getRotation(), a.getRotation());
+            assertBits(message + ": enemy " + i + " scale", e.getScale(), a.getScale());
+        }
+    }
+
+    /**
+     * Check that the spatial indexes of a terrain hold its trees, roads and enemies in
+     * order, and that each can be found where it stands.
+     *
+     * @param message
+     * @param terrain
+     */
+    static void assertIndexed(String message, Terrain terrain) {
+        List<Tree> trees = new ArrayList<>();
+        assertEquals(message + ": tree index", terrain.trees().size(), terrain.treeIndex().size());
+        for (int i = 0; i < terrain.trees().size(); i++) {
+            Tree tree = terrain.trees().get(i);
+            assertSame(message + ": tree index " + i, tree, terrain.treeIndex().get(i));
+            double[] p = tree.getPosition();
+            trees.clear();
+            terrain.treeIndex().queryRadius(p[0], p[2], 0, trees);
+            assertTrue(message + ": tree " + i + " not found", trees.contains(tree));
+        }
+
+        List<Road> roads = new ArrayList<>();
+        assertEquals(message + ": road index", terrain.roads().size(), terrain.roadIndex().size());
+        for (int i = 0; i < terrain.roads().size(); i++) {
+            Road road = terrain.roads().get(i);
+            assertSame(message + ": road index " + i, road, terrain.roadIndex().get(i));
+            double[] p = road.controlPoint(0);
+            roads.clear();
+            terrain.roadIndex().queryRadius(p[0], p[1], 0, roads);
+            assertTrue(message + ": road " + i + " not found", roads.contains(road));
+        }
+
+        List<Enemy> enemies = new ArrayList<>();
+        assertEquals(message + ": enemy index", terrain.enemies().size(), terrain.enemyIndex().size());
+        for (int i = 0; i < terrain.enemies().size(); i++) {
+            Enemy enemy = terrain.enemies().get(i);
+            assertSame(message + ": enemy index " + i, enemy, terrain.enemyIndex().get(i));
+            double[] t = enemy.getTranslation();
+            enemies.clear();
+            terrain.enemyIndex().queryRadius(t[0], t[2], 0, enemies);
+            assertTrue(message + ": enemy " + i + " not found", enemies.contains(enemy));
+        }
+    }
+
+    private static void assertBits(String message, double expected, double actual) {
+        assertEquals(message + " (" + expected + " vs " + actual + ")",
+                Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+    }
+
+    private static void assertBits(String message, double[] expected, double[] actual) {
+        assertEquals(message + ": length", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertBits(message + "[" + i + "]", expected[i], actual[i]);
+        }
+    }
+
+    private static void assertBits(String message, float[] expected, float[] actual) {
+        assertEquals(message + ": length", expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(message + "[" + i + "]",
+                    Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+        }
+    }
+}